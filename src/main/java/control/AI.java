@@ -1,6 +1,19 @@
 package control;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AI{
 
@@ -13,20 +26,215 @@ public class AI{
     int POINT_FOR_THREAT = 10;
     int POINT_FOR_SIDES = 4;
 
+    // Indexes of the features of the vector form of EvaluateBoard, one per point value above.
+    static final int FEATURE_WIN = 0;
+    static final int FEATURE_KING = 1;
+    static final int FEATURE_PIECE = 2;
+    static final int FEATURE_THREAT = 3;
+    static final int FEATURE_SIDES = 4;
+    static final int FEATURES = 5;
+    static final String[] WEIGHT_NAMES = {"POINT_FOR_WIN", "POINT_FOR_KING", "POINT_FOR_PIECE", "POINT_FOR_THREAT", "POINT_FOR_SIDES"};
+
+    // Point values written by the Tuner, read once at startup if the file exists.
+    // The file is given by the checkers.weights system property, weights.properties (in the working
+    // directory) by default: a file left there changes every engine, Benchmark node counts included.
+    // A file that can't be read is reported on System.err and the built-in values are kept.
+    static final String WEIGHTS_PROPERTY = "checkers.weights";
+    static final String DEFAULT_WEIGHTS_FILE = "weights.properties";
+    private static final int[] STARTUP_WEIGHTS = readStartupWeights();
 
     // Maximum depth of search in the game tree (number of moves the AI can anticipate).
     int TOP_RECURSION_LEVEL = 6;
 
+    // Half width of the aspiration window opened around the previous iteration's score (0 = full window).
+    int ASPIRATION_WINDOW = 15;
+
+    // Principal variation search: null windows for every move after the first one.
+    boolean usePvs = true;
+
+    // Late move reductions: quiet moves ordered late are searched LMR_REDUCTION plies shallower
+    // first (from LMR_MIN_DEPTH on, after the first LMR_FULL_MOVES moves) and re-searched if they beat alpha.
+    boolean useLateMoveReductions = true;
+    int LMR_MIN_DEPTH = 3;
+    int LMR_FULL_MOVES = 2;
+    int LMR_REDUCTION = 2;
+
+    // Draw detection: a position repeated on the game path or on the search path scores as a draw (0),
+    // and so does every position reached after DRAW_PLIES_WITHOUT_CAPTURE plies without a capture (0 = no limit).
+    boolean useDrawDetection = true;
+    int DRAW_PLIES_WITHOUT_CAPTURE = DEFAULT_DRAW_PLIES_WITHOUT_CAPTURE;
+
+    // Plies without a capture that draw a game, also adjudicated by SessionManager.
+    static final int DEFAULT_DRAW_PLIES_WITHOUT_CAPTURE = 80;
+
+    // Bound bigger than any reachable score.
+    private static final int INFINITY = 1_000_000;
+
+    // Nodes searched between two checks of the clock.
+    private static final int DEADLINE_CHECK_NODES = 128;
+
+    // Slots of the evaluation cache created by the constructors that don't receive one.
+    static final int DEFAULT_EVAL_CACHE_ENTRIES = 1 << 18;
+
     private char[][] gameBoard;
     private final Rules rules;
+    private final Executor executor;
+    // Leaf scores, kept across iterations and searches (and shared with other engines if given).
+    private final EvalCache evalCache;
     private ArrayList<int[]> bestMovesList;
-    private ArrayList<Integer> decisionTree;
+    private long rootHash;
+    private long nodeCount;
+
+    // Only one search at a time: the search state lives in this instance.
+    // Released under its monitor, which startSearch waits on while a cancelled search stops.
+    private final AtomicBoolean searching = new AtomicBoolean();
+    // Future of the running asynchronous search (null for playAi), cancelling it stops the search.
+    private volatile CompletableFuture<int[]> runningSearch;
+    // System.nanoTime() deadline of the running search, 0 if there's none.
+    private long deadline;
+    private boolean stopped;
+
+    // History heuristic: how often a move (from square, to square) raised alpha, weighted by depth.
+    private final int[][] history = new int[64][64];
+
+    // Root moves ranked with exact scores by analyze (multi-PV), 1 for playAi and search.
+    private int multiPv = 1;
+    // Set by analyze: PVS re-searches open the whole window, not just (null window score, beta),
+    // so a score equal to that bound doesn't cut the principal variation short.
+    private boolean fullPv;
+    // Lines of the last completed iteration.
+    private List<AnalysisLine> analysis = List.of();
+    // Triangular principal variation table: pvTable[ply] holds the best line found from the
+    // node being searched at that ply, pvLength[ply] its number of moves.
+    private int[][][] pvTable = new int[0][][];
+    private int[] pvLength = new int[0];
+    private int ply;
+
+    // Game path given by setGameHistory: hash of each position and plies without a capture before it.
+    // The last position is the one the searches are expected to start from.
+    private long[] gameHashes = new long[0];
+    private int[] gameQuietPlies = new int[0];
+    // Hash stack of the game path followed by the search path, with the plies without a capture
+    // before each position. The root is at pathBase and the node being searched at pathBase + ply.
+    private long[] pathHashes = new long[0];
+    private int[] quietPlies = new int[0];
+    private int pathBase;
+
+    private final int[] features = new int[FEATURES];
 
     /**
-     * Constructor
+     * Constructor. Asynchronous searches run in the common fork-join pool.
      */
     public AI() {
-        rules = Rules.getInstance();
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor
+     * @param executor runs the asynchronous searches
+     */
+    public AI(Executor executor) {
+        this(executor, new EvalCache(DEFAULT_EVAL_CACHE_ENTRIES));
+    }
+
+    /**
+     * Constructor
+     * @param executor  runs the asynchronous searches
+     * @param evalCache leaf score cache, can be shared by engines searching concurrently
+     */
+    public AI(Executor executor, EvalCache evalCache) {
+        // own Rules: it keeps the position being checked, so searches on other threads can't share it
+        rules = new Rules();
+        this.executor = executor;
+        this.evalCache = evalCache;
+        if(STARTUP_WEIGHTS != null)
+            setWeightValues(STARTUP_WEIGHTS);
+    }
+
+    /**
+     * Getter for the point values of the evaluation
+     * @return weights indexed by FEATURE_WIN, FEATURE_KING...
+     */
+    public int[] getWeights() {
+        return new int[]{POINT_FOR_WIN, POINT_FOR_KING, POINT_FOR_PIECE, POINT_FOR_THREAT, POINT_FOR_SIDES};
+    }
+
+    /**
+     * Setter for the point values of the evaluation. Clears the evaluation cache, which must not
+     * be shared with engines using other weights.
+     * @param weights weights indexed by FEATURE_WIN, FEATURE_KING...
+     */
+    public void setWeights(int[] weights) {
+        setWeightValues(weights);
+        evalCache.clear();
+    }
+
+    private void setWeightValues(int[] weights) {
+        if(weights.length != FEATURES)
+            throw new IllegalArgumentException("expected " + FEATURES + " weights, got " + weights.length);
+        POINT_FOR_WIN = weights[FEATURE_WIN];
+        POINT_FOR_KING = weights[FEATURE_KING];
+        POINT_FOR_PIECE = weights[FEATURE_PIECE];
+        POINT_FOR_THREAT = weights[FEATURE_THREAT];
+        POINT_FOR_SIDES = weights[FEATURE_SIDES];
+    }
+
+    /**
+     * Reads point values from a properties file with one entry per name of WEIGHT_NAMES.
+     * @param file weights file
+     * @return weights indexed by FEATURE_WIN, FEATURE_KING...
+     */
+    static int[] readWeights(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        int[] weights = new int[FEATURES];
+        for (int i = 0; i < FEATURES; i++) {
+            String value = properties.getProperty(WEIGHT_NAMES[i]);
+            if (value == null)
+                throw new IOException(file + ": missing " + WEIGHT_NAMES[i]);
+            try {
+                weights[i] = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ": invalid " + WEIGHT_NAMES[i] + " " + value, e);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Writes point values in the format read by readWeights.
+     * @param file    weights file
+     * @param weights weights indexed by FEATURE_WIN, FEATURE_KING...
+     * @param comment header of the file
+     */
+    static void writeWeights(Path file, int[] weights, String comment) throws IOException {
+        Properties properties = new Properties();
+        for (int i = 0; i < FEATURES; i++)
+            properties.setProperty(WEIGHT_NAMES[i], Integer.toString(weights[i]));
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, comment);
+        }
+    }
+
+    /**
+     * Reads the weights file given by WEIGHTS_PROPERTY, or DEFAULT_WEIGHTS_FILE if it exists.
+     * Runs in the static initializer, so it never throws: an error there would make the
+     * class unusable for the life of the JVM.
+     * @return weights, null to keep the built-in point values
+     */
+    private static int[] readStartupWeights() {
+        String configured = System.getProperty(WEIGHTS_PROPERTY);
+        try {
+            Path file = Path.of(configured != null ? configured : DEFAULT_WEIGHTS_FILE);
+            if (configured == null && !Files.exists(file))
+                return null;
+            return readWeights(file);
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Can't read the evaluation weights, using the built-in ones: " + e);
+            return null;
+        }
     }
     
     /**
@@ -46,152 +254,696 @@ public class AI{
     }
 
     /**
-     * Finds and returns the best move for the ai
+     * Sets the game that led to the position of the next searches, so the positions it
+     * already went through score as draws and the plies without a capture count for
+     * DRAW_PLIES_WITHOUT_CAPTURE. Searches that start from another position ignore it.
+     * @param start   position at the start of the game
+     * @param aiMoves true if the ai moves at the start
+     * @param moves   moves played since the start
+     */
+    public void setGameHistory(char[][] start, boolean aiMoves, List<int[]> moves){
+        char[][] board = copyBoard(start);
+        gameHashes = new long[moves.size() + 1];
+        gameQuietPlies = new int[moves.size() + 1];
+        gameHashes[0] = Zobrist.hash(board, aiMoves);
+        for (int i = 0; i < moves.size(); i++) {
+            int[] play = moves.get(i);
+            gameHashes[i + 1] = Zobrist.afterMove(gameHashes[i], board, play);
+            gameQuietPlies[i + 1] = isCapture(play) ? 0 : gameQuietPlies[i] + 1;
+            makeTheMove(play, board);
+        }
+    }
+
+    /**
+     * Getter for the evaluation cache, to read its hit rate
+     * @return cache of leaf scores
+     */
+    public EvalCache getEvalCache() {
+        return evalCache;
+    }
+
+    /**
+     * Number of nodes visited by the last search
+     * @return node count
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Finds and returns the best move for the ai.
+     * Blocks until the search reaches TOP_RECURSION_LEVEL.
      * @return best move in a int[] 
      */
     public int[] playAi(){
-        decisionTree = new ArrayList<>();
-        int m = miniMax(TOP_RECURSION_LEVEL, gameBoard, true);
-        if(bestMovesList == null || bestMovesList.size()==0)
+        startSearch();
+        try {
+            runningSearch = null;
+            return iterativeDeepening(new SearchLimits(TOP_RECURSION_LEVEL, 0), null);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Searches the best move for the ai in the given position without blocking the caller.
+     * @param position board, the ai moves
+     * @param limits   maximum depth and time of the search
+     * @return future completed with the best move (null if the ai can't move)
+     * @see AI#search(char[][], SearchLimits, SearchProgress)
+     */
+    public CompletableFuture<int[]> search(char[][] position, SearchLimits limits){
+        return search(position, limits, null);
+    }
+
+    /**
+     * Searches the best move for the ai in the given position without blocking the caller.
+     * Cancelling the returned future stops the search at the next node; a search started
+     * right after the cancellation waits for it to stop instead of failing. When the time
+     * limit runs out the future completes with the best move of the last completed depth.
+     * @param position board, the ai moves
+     * @param limits   maximum depth and time of the search
+     * @param progress receives the best move after each completed depth, can be null
+     * @return future completed with the best move (null if the ai can't move)
+     */
+    public CompletableFuture<int[]> search(char[][] position, SearchLimits limits, SearchProgress progress){
+        startSearch();
+        CompletableFuture<int[]> future = new CompletableFuture<>();
+        char[][] board = copyBoard(position);
+        runningSearch = future;
+        // the worker and a cancellation that comes before it starts race to release the AI
+        AtomicBoolean claimed = new AtomicBoolean();
+        future.whenComplete((move, error) -> {
+            if (claimed.compareAndSet(false, true))
+                release();
+        });
+        try {
+            executor.execute(() -> {
+                if (!claimed.compareAndSet(false, true))
+                    return;
+                int[] move = null;
+                Throwable error = null;
+                try {
+                    gameBoard = board;
+                    move = iterativeDeepening(limits, progress);
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    release();
+                }
+                // completed once the AI is free, so the caller can start the next search right away
+                if (error != null)
+                    future.completeExceptionally(error);
+                else
+                    future.complete(move);
+            });
+        } catch (RuntimeException e) {
+            if (claimed.compareAndSet(false, true))
+                release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Ranks the best root moves of the position, each one with its exact score and principal
+     * variation, in a single search: the lines share the history and the evaluation cache,
+     * and the other moves are only proven worse than the last line, with null windows.
+     * Late move reductions are off during the analysis: their result depends on the window,
+     * so the scores wouldn't be exact.
+     * @param position board, the ai moves
+     * @param limits   maximum depth and time of the search
+     * @param lines    number of moves to rank, at least 1
+     * @return lines of the last completed depth, best first (fewer if the ai has fewer moves)
+     */
+    public List<AnalysisLine> analyze(char[][] position, SearchLimits limits, int lines){
+        if(lines < 1)
+            throw new IllegalArgumentException("lines must be at least 1: " + lines);
+        startSearch();
+        boolean lateMoveReductions = useLateMoveReductions;
+        try {
+            runningSearch = null;
+            gameBoard = copyBoard(position);
+            multiPv = lines;
+            fullPv = true;
+            useLateMoveReductions = false;
+            iterativeDeepening(limits, null);
+            return analysis;
+        } finally {
+            multiPv = 1;
+            fullPv = false;
+            useLateMoveReductions = lateMoveReductions;
+            release();
+        }
+    }
+
+    /**
+     * Claims this instance for a new search. Waits if the running search was cancelled
+     * (it stops at its next node), fails if it's still going on.
+     */
+    private void startSearch(){
+        synchronized(searching){
+            while(!searching.compareAndSet(false, true)){
+                CompletableFuture<int[]> running = runningSearch;
+                if(running == null || !running.isDone())
+                    throw new IllegalStateException("This AI is already searching");
+                try {
+                    searching.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while the cancelled search stopped", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees this instance for the next search.
+     */
+    private void release(){
+        // under the monitor: startSearch must never see the AI busy with no running search
+        synchronized(searching){
+            searching.set(false);
+            runningSearch = null;
+            searching.notifyAll();
+        }
+    }
+
+    /**
+     * Iterative deepening from gameBoard, every iteration reorders the root
+     * moves so the next one searches the best move first.
+     * An iteration interrupted by a deadline or a cancellation is discarded.
+     * Multi-PV searches (multiPv &gt; 1) use a full window instead of aspiration windows.
+     * @param limits   maximum depth and time of the search
+     * @param progress receives the best move after each completed depth, can be null
+     * @return best move in a int[], null if there's none
+     */
+    private int[] iterativeDeepening(SearchLimits limits, SearchProgress progress){
+        nodeCount = 0;
+        stopped = false;
+        deadline = limits.getTimeLimitMillis() > 0 ? System.nanoTime() + limits.getTimeLimitMillis() * 1_000_000 : 0;
+        for (int[] row : history)
+            Arrays.fill(row, 0);
+        rootHash = Zobrist.hash(gameBoard, true);
+        int gameLength = gameHashes.length;
+        if(gameLength > 0 && gameHashes[gameLength - 1] == rootHash){
+            pathBase = gameLength - 1;
+            pathHashes = Arrays.copyOf(gameHashes, gameLength);
+            quietPlies = Arrays.copyOf(gameQuietPlies, gameLength);
+        }
+        else{
+            pathBase = 0;
+            pathHashes = new long[]{rootHash};
+            quietPlies = new int[1];
+        }
+        rules.setPropertiesForPlayer(gameBoard, true);
+        bestMovesList = rules.bestMoves();
+        analysis = List.of();
+        if(bestMovesList.isEmpty())
             return null;
-        int i = decisionTree.indexOf(m);
-        return bestMovesList.get(i);
+        int score = 0;
+        for(int depth=1; depth<=limits.getMaxDepth(); depth++){
+            if(pvTable.length <= depth){
+                pvTable = new int[depth + 1][depth + 1][];
+                pvLength = new int[depth + 1];
+            }
+            if(pathHashes.length <= pathBase + depth){
+                pathHashes = Arrays.copyOf(pathHashes, pathBase + depth + 1);
+                quietPlies = Arrays.copyOf(quietPlies, pathBase + depth + 1);
+            }
+            ply = 0;
+            List<AnalysisLine> lines;
+            if(multiPv > 1){
+                lines = multiPvSearch(depth);
+                if(stopped)
+                    break;
+            }
+            else{
+                int val = aspirationSearch(depth, score);
+                if(stopped)
+                    break;
+                lines = List.of(new AnalysisLine(val, principalVariation(0)));
+            }
+            analysis = lines;
+            score = lines.get(0).getScore();
+            if(progress != null)
+                progress.depthCompleted(depth, bestMovesList.get(0), score);
+        }
+        return bestMovesList.get(0);
     }
 
+    /**
+     * Checks if the running search was cancelled or ran out of time. Called on every node,
+     * the clock is only read every DEADLINE_CHECK_NODES nodes.
+     * @return true if the search must stop
+     */
+    private boolean shouldStop(){
+        if(!stopped){
+            if(runningSearch != null && runningSearch.isDone())
+                stopped = true;
+            else if(deadline != 0 && nodeCount % DEADLINE_CHECK_NODES == 0 && System.nanoTime() - deadline > 0)
+                stopped = true;
+        }
+        return stopped;
+    }
 
-    /* PSEUDOCODE FOR MINIMAX FROM WIKIPEDIA USED AS AN INSPIRATION
-    function minimax(node, depth, maximizingPlayer)
+
+    /* PSEUDOCODE FOR NEGASCOUT (PVS) FROM WIKIPEDIA USED AS AN INSPIRATION
+    function pvs(node, depth, α, β, color)
     if depth = 0 or node is a terminal node
-        return the heuristic value of node
-    if maximizingPlayer
-        bestValue := -∞
-        for each child of node
-            val := minimax(child, depth - 1, FALSE)
-            bestValue := max(bestValue, val)
-        return bestValue
-    else
-        bestValue := +∞
-        for each child of node
-            val := minimax(child, depth - 1, TRUE)
-            bestValue := min(bestValue, val)
-        return bestValue
-
-(* Initial call for maximizing player *)
-minimax(origin, depth, TRUE)
+        return color × the heuristic value of node
+    for each child of node
+        if child is first child
+            score := −pvs(child, depth − 1, −β, −α, −color)
+        else
+            score := −pvs(child, depth − 1, −α − 1, −α, −color) (* search with a null window *)
+            if α < score < β
+                score := −pvs(child, depth − 1, −β, −score, −color) (* if it failed high, do a full re-search *)
+        α := max(α, score)
+        if α ≥ β
+            break (* beta cut-off *)
+    return α
  */
 
     /**
-     * MINIMAX
+     * Searches the root with a narrow window around the previous iteration's score,
+     * falling back to a full window when the result lands outside of it.
+     * @param depth      depth of this iteration
+     * @param lastScore  score of the previous iteration
+     * @return minimax value of the root
+     */
+    private int aspirationSearch(int depth, int lastScore){
+        if(depth == 1 || ASPIRATION_WINDOW <= 0)
+            return rootSearch(depth, -INFINITY, INFINITY);
+        int alpha = lastScore - ASPIRATION_WINDOW;
+        int beta = lastScore + ASPIRATION_WINDOW;
+        int score = rootSearch(depth, alpha, beta);
+        if(!stopped && (score <= alpha || score >= beta))
+            score = rootSearch(depth, -INFINITY, INFINITY);
+        return score;
+    }
+
+    /**
+     * Searches every root move and moves the best one to the front of bestMovesList.
+     * @param depth profundidad de la iteracion
+     * @param alpha lower bound
+     * @param beta  upper bound
+     * @return minimax value of the root (a bound when outside (alpha, beta))
+     */
+    private int rootSearch(int depth, int alpha, int beta){
+        nodeCount++;
+        pvLength[0] = 0;
+        int windowAlpha = alpha;
+        int bestValue = -INFINITY;
+        int bestIndex = 0;
+        for (int i = 0; i < bestMovesList.size(); i++) {
+            int val = searchChild(bestMovesList.get(i), gameBoard, rootHash, depth, true, alpha, beta, i == 0, 0);
+            if (stopped)
+                return bestValue;
+            if (val > bestValue) {
+                bestValue = val;
+                bestIndex = i;
+                if (val > alpha){
+                    alpha = val;
+                    updatePv(bestMovesList.get(i));
+                }
+                if (alpha >= beta)
+                    break;
+            }
+        }
+        // a fail low says nothing about which move is best
+        if(bestIndex > 0 && bestValue > windowAlpha)
+            bestMovesList.add(0, bestMovesList.remove(bestIndex));
+        return bestValue;
+    }
+
+    /**
+     * Multi-PV root search. Each move is searched against the score of the worst of the
+     * multiPv best lines found so far, so the moves that enter the lines get exact scores
+     * and the rest only an upper bound. Sorts bestMovesList by score, exact scores first on ties.
+     * @param depth profundidad de la iteracion
+     * @return the multiPv best lines, null if the search stopped
+     */
+    private List<AnalysisLine> multiPvSearch(int depth){
+        nodeCount++;
+        int size = bestMovesList.size();
+        int lines = Math.min(multiPv, size);
+        int[] scores = new int[size];
+        boolean[] exact = new boolean[size];
+        List<List<int[]>> variations = new ArrayList<>();
+        // scores of the best lines so far, best first
+        int[] top = new int[lines];
+        Arrays.fill(top, -INFINITY);
+        for (int i = 0; i < size; i++) {
+            int[] play = bestMovesList.get(i);
+            int alpha = top[lines - 1];
+            int val = searchChild(play, gameBoard, rootHash, depth, true, alpha, INFINITY, alpha == -INFINITY, 0);
+            if (stopped)
+                return null;
+            scores[i] = val;
+            List<int[]> variation = null;
+            if (val > alpha) {
+                exact[i] = true;
+                variation = new ArrayList<>();
+                variation.add(play);
+                variation.addAll(principalVariation(1));
+                int j = lines - 1;
+                while (j > 0 && top[j - 1] < val) {
+                    top[j] = top[j - 1];
+                    j--;
+                }
+                top[j] = val;
+            }
+            variations.add(variation);
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Integer.compare(scores[b], scores[a])
+                : Boolean.compare(exact[b], exact[a]));
+        ArrayList<int[]> sorted = new ArrayList<>(size);
+        List<AnalysisLine> result = new ArrayList<>(lines);
+        for (int i = 0; i < size; i++) {
+            sorted.add(bestMovesList.get(order[i]));
+            if (i < lines)
+                result.add(new AnalysisLine(scores[order[i]], variations.get(order[i])));
+        }
+        bestMovesList = sorted;
+        return result;
+    }
+
+    /**
+     * Moves of the principal variation found from the node at the given ply.
+     * @param fromPly ply of the node
+     * @return list of moves
+     */
+    private List<int[]> principalVariation(int fromPly){
+        return Arrays.asList(pvTable[fromPly]).subList(0, pvLength[fromPly]);
+    }
+
+    /**
+     * Sets the principal variation of the node at the current ply to the given move
+     * followed by the principal variation of the child just searched.
+     * @param play move that raised alpha
+     */
+    private void updatePv(int[] play){
+        int childLength = pvLength[ply + 1];
+        pvTable[ply][0] = play;
+        System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, childLength);
+        pvLength[ply] = childLength + 1;
+    }
+
+    /**
+     * Plays the move on a copy of the board and searches the resulting position one ply deeper.
+     * @param play  move to play
+     * @param board board before the move
+     * @param hash  hash of the board before the move
+     * @param depth profundidad del nodo padre
+     * @param ai    juega la ia o no en el nodo padre
+     * @param alpha lower bound
+     * @param beta  upper bound
+     * @param first true for the first move of the node
+     * @param reduction plies the first try is reduced by (0 = no reduction)
+     * @return value of the move from the point of view of the player who makes it
+     */
+    private int searchChild(int[] play, char[][] board, long hash, int depth, boolean ai, int alpha, int beta, boolean first, int reduction){
+        long hashC = Zobrist.afterMove(hash, board, play);
+        char[][] boardC = copyBoard(board);
+        makeTheMove(play, boardC);
+        ply++;
+        pathHashes[pathBase + ply] = hashC;
+        quietPlies[pathBase + ply] = isCapture(play) ? 0 : quietPlies[pathBase + ply - 1] + 1;
+        int val = searchWindows(boardC, hashC, depth, ai, alpha, beta, first, reduction);
+        ply--;
+        return val;
+    }
+
+    /**
+     * Searches the position after a move.
+     * Every move but the first one is tried with a null window first and only
+     * re-searched with the full window when it beats alpha.
+     * A reduced move is first tried with a null window at a shallower depth, unless
+     * it leaves a capture to the opponent, and only searched normally when it beats alpha.
+     * @param boardC board after the move
+     * @param hashC  hash of the board after the move
+     * @param depth profundidad del nodo padre
+     * @param ai    juega la ia o no en el nodo padre
+     * @param alpha lower bound
+     * @param beta  upper bound
+     * @param first true for the first move of the node
+     * @param reduction plies the first try is reduced by (0 = no reduction)
+     * @return value of the move from the point of view of the player who makes it
+     */
+    private int searchWindows(char[][] boardC, long hashC, int depth, boolean ai, int alpha, int beta, boolean first, int reduction){
+        if(reduction > 0 && !givesCapture(boardC, !ai)){
+            int val = -negaMax(depth - 1 - reduction, boardC, hashC, !ai, -alpha - 1, -alpha);
+            if(val <= alpha || stopped)
+                return val;
+        }
+        if(first || !usePvs)
+            return -negaMax(depth - 1, boardC, hashC, !ai, -beta, -alpha);
+        int val = -negaMax(depth - 1, boardC, hashC, !ai, -alpha - 1, -alpha);
+        if(val > alpha && val < beta)
+            val = -negaMax(depth - 1, boardC, hashC, !ai, -beta, fullPv ? -alpha : -val);
+        return val;
+    }
+
+    /**
+     * Plies the move is reduced by. Moves of a node with a forced capture, promotions
+     * and the first LMR_FULL_MOVES moves are never reduced.
+     * @param play  move
+     * @param board board before the move
+     * @param index position of the move in the ordered list
+     * @param depth profundidad del nodo
+     * @param captures true if the node's moves are captures (Rules#getLevelOfPlays() &gt; 0)
+     * @return reduction in plies
+     */
+    private int lateMoveReduction(int[] play, char[][] board, int index, int depth, boolean captures){
+        if(!useLateMoveReductions || captures || depth < LMR_MIN_DEPTH || index < LMR_FULL_MOVES)
+            return 0;
+        if(rules.isCrowned(board[play[0]][play[1]], play[play.length - 2]))
+            return 0;
+        return Math.min(LMR_REDUCTION, depth - 1);
+    }
+
+    /**
+     * Checks if the given player has a capture on the board.
+     * @param board board
+     * @param ai    player to check
+     * @return boolean
+     */
+    private boolean givesCapture(char[][] board, boolean ai){
+        rules.setPropertiesForPlayer(board, ai);
+        return rules.hasCapture();
+    }
+
+    /**
+     * NEGAMAX with alpha-beta pruning (fail-soft)
      *
      * @param depth profundida actual en el arbol (cuenta al reves)
      * @param board board
+     * @param hash  hash of the board
      * @param ai    juega la ia o no
-     * @return valor minimax de cada estado
+     * @param alpha lower bound
+     * @param beta  upper bound
+     * @return valor del estado desde el punto de vista del jugador que mueve
      */
-    private int miniMax(int depth, char[][] board, boolean ai){
+    private int negaMax(int depth, char[][] board, long hash, boolean ai, int alpha, int beta){
+        nodeCount++;
+        pvLength[ply] = 0;
+        if(shouldStop())
+            return 0;   // discarded by the root
+        if(useDrawDetection && isDraw())
+            return 0;
+        if(depth==0)
+            return leafScore(board, hash, ai);
         rules.setPropertiesForPlayer(board, ai);
         ArrayList<int[]> localArrayList = rules.bestMoves();
-        if(depth == TOP_RECURSION_LEVEL){  
-            bestMovesList = localArrayList;  
-        }
         if(localArrayList.isEmpty()){
-            return ai?-POINT_FOR_WIN:POINT_FOR_WIN;
-        }
-        if(depth==0){
-            return EvaluateBoard(board, ai);
+            return -POINT_FOR_WIN;
         }
-        else{
-            int baseValue = (ai)?Integer.MIN_VALUE:Integer.MAX_VALUE;
-            for (int[] play : localArrayList) {
-                char[][] boardC = copyBoard(board);
-                makeTheMove(play, boardC);
-                int val = miniMax(depth - 1, boardC, !ai);
-                if (ai) {
-                    if (depth == TOP_RECURSION_LEVEL) 
-                        decisionTree.add(val);
-                    if (val > baseValue)
-                        baseValue = val;
+        boolean captures = rules.getLevelOfPlays() > 0;
+        orderMoves(localArrayList);
+        int bestValue = -INFINITY;
+        for (int i = 0; i < localArrayList.size(); i++) {
+            int[] play = localArrayList.get(i);
+            int reduction = lateMoveReduction(play, board, i, depth, captures);
+            int val = searchChild(play, board, hash, depth, ai, alpha, beta, i == 0, reduction);
+            if (stopped)
+                return bestValue;
+            if (val > bestValue) {
+                bestValue = val;
+                if (val > alpha){
+                    alpha = val;
+                    history[from(play)][to(play)] += depth * depth;
+                    updatePv(play);
                 }
-                else {
-                    if (val < baseValue)
-                        baseValue = val;
+                if (alpha >= beta) {
+                    break;
                 }
             }
-            return baseValue;
         }
+        return bestValue;
+    }
+
+    /**
+     * Checks if the node being searched is a draw: DRAW_PLIES_WITHOUT_CAPTURE plies without
+     * a capture, or a position already on the path since the last capture. Only the positions
+     * with the same player to move are compared, and a position can't repeat before 4 plies.
+     * A root already past the limit is a game nobody adjudicated, so the limit is ignored there.
+     * @return boolean
+     */
+    private boolean isDraw(){
+        int index = pathBase + ply;
+        int quiet = quietPlies[index];
+        if(DRAW_PLIES_WITHOUT_CAPTURE > 0 && quiet >= DRAW_PLIES_WITHOUT_CAPTURE
+                && quietPlies[pathBase] < DRAW_PLIES_WITHOUT_CAPTURE)
+            return true;
+        long hash = pathHashes[index];
+        for(int i = index - 4; i >= index - quiet; i -= 2){
+            if(pathHashes[i] == hash)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the move jumps
+     */
+    private static boolean isCapture(int[] play){
+        return Math.abs(play[2] - play[0]) == 2;
+    }
+
+    /**
+     * Value of a leaf from the point of view of the player who moves, looked up in
+     * the evaluation cache before evaluating the board.
+     * @param board board
+     * @param hash  hash of the board
+     * @param ai    juega la ia o no
+     * @return -POINT_FOR_WIN if the player can't move, the evaluation otherwise
+     */
+    private int leafScore(char[][] board, long hash, boolean ai){
+        int val = evalCache.probe(hash);
+        if(val != EvalCache.MISS)
+            return val;
+        val = ai ? EvaluateBoard(board, ai) : -EvaluateBoard(board, ai);
+        evalCache.store(hash, val);
+        return val;
+    }
+
+    /**
+     * Sorts the moves by their history score (insertion sort, the lists are short)
+     * so the null windows of PVS are tried on the weaker moves.
+     * @param moves list of moves of the node
+     */
+    private void orderMoves(ArrayList<int[]> moves){
+        for (int i = 1; i < moves.size(); i++) {
+            int[] play = moves.get(i);
+            int score = history[from(play)][to(play)];
+            int j = i - 1;
+            while (j >= 0 && history[from(moves.get(j))][to(moves.get(j))] < score) {
+                moves.set(j + 1, moves.get(j));
+                j--;
+            }
+            moves.set(j + 1, play);
+        }
+    }
+
+    /**
+     * Index (row * 8 + col) of the start square of the move
+     */
+    private int from(int[] play){
+        return play[0] * 8 + play[1];
+    }
+
+    /**
+     * Index (row * 8 + col) of the last square of the move
+     */
+    private int to(int[] play){
+        return play[play.length - 2] * 8 + play[play.length - 1];
     }
 
     /**
      * Calculates a score for the provided game board based on piece 
-     * placement and threat assessment. Uses constant point values defined.
+     * placement and threat assessment. Uses the point values defined above
+     * as weights of the features of the board.
      *
      * @param board game board
-     * @param ai    True if evaluating from the AI's perspective
-     * @return integer score calculated for the board
+     * @param ai    True if the AI is the player who moves
+     * @return integer score calculated for the board, from the AI's perspective
+     * @see AI#evaluationFeatures(char[][], boolean, Rules, int[])
      */
     private int EvaluateBoard(char[][] board, boolean ai){
-        int constant = (ai?1:-1);
-        int constBl=1*constant;
-        int constRd=-1*constant;
+        evaluationFeatures(board, ai, rules, features);
+        return POINT_FOR_WIN * features[FEATURE_WIN]
+                + POINT_FOR_KING * features[FEATURE_KING]
+                + POINT_FOR_PIECE * features[FEATURE_PIECE]
+                + POINT_FOR_THREAT * features[FEATURE_THREAT]
+                + POINT_FOR_SIDES * features[FEATURE_SIDES];
+    }
+
+    /**
+     * Vector form of EvaluateBoard: the black (AI) minus red difference of each evaluated
+     * aspect, to be multiplied by the point values. A player who moves and has no moves
+     * has lost: only FEATURE_WIN is set (-1 if the AI lost, 1 if red did).
+     *
+     * @param board    game board
+     * @param ai       True if the AI is the player who moves
+     * @param rules    Rules instance used to count the moves
+     * @param features receives the FEATURES values
+     */
+    static void evaluationFeatures(char[][] board, boolean ai, Rules rules, int[] features){
+        Arrays.fill(features, 0);
+        int rMoves, bMoves, rThreat, bThreat;
+        rules.setPropertiesForPlayer(board, false);
+        rMoves = rules.countMoves();
+        rThreat = evaluateThreatLevel(rules);
+        rules.setPropertiesForPlayer(board, true);
+        bMoves = rules.countMoves();
+        bThreat = evaluateThreatLevel(rules);
+        if((ai ? bMoves : rMoves) == 0){
+            features[FEATURE_WIN] = ai ? -1 : 1;
+            return;
+        }
 
-        int score=0;
         for (int r=0; r<8; r++){
             for (int c=0; c<8; c++){
                 char cr = board[r][c];
                 // points for pieces
                 switch (cr) {
-                    case 'r' -> score += (POINT_FOR_PIECE * constRd);
-                    case 'R' -> score += (POINT_FOR_KING * constRd);
-                    case 'b' -> score += (POINT_FOR_PIECE * constBl);
-                    case 'B' -> score += (POINT_FOR_KING * constBl);
+                    case 'r' -> features[FEATURE_PIECE]--;
+                    case 'R' -> features[FEATURE_KING]--;
+                    case 'b' -> features[FEATURE_PIECE]++;
+                    case 'B' -> features[FEATURE_KING]++;
                     default -> {
                     }
                 }
                 // points for positions
                 if((cr=='r' || cr=='R')&&(c==0||c==7||r==0||r==7)){
-                    score+=(POINT_FOR_SIDES*constRd);
+                    features[FEATURE_SIDES]--;
                 }
                 if((cr=='b' || cr=='B')&&(c==0||c==7||r==0||r==7)){
-                    score+=(POINT_FOR_SIDES*constBl);
+                    features[FEATURE_SIDES]++;
                 }
             }
         }
-        ArrayList<int[]> localArrayList;
-        rules.setPropertiesForPlayer(board, false);
-        localArrayList = rules.bestMoves();
-        int rVal = evaluateThreatLevelFromMoves(localArrayList)*POINT_FOR_THREAT;
-        localArrayList.clear();
-        rules.setPropertiesForPlayer(board, true);
-        localArrayList = rules.bestMoves();
-        int bVal = evaluateThreatLevelFromMoves(localArrayList)*POINT_FOR_THREAT;
-        score+=rVal*constRd;
-        score+=bVal*constBl;
-        if(ai)
-            return score; 
-        else
-            return -score;
+        features[FEATURE_THREAT] = bThreat - rThreat;
     }
 
     /**
-     * Evaluates the threat level posed by the given list of possible moves 
-     * by counting threatened opponent pieces based on move lengths.
-     * @param arlist The list of possible moves to evaluate
+     * Evaluates the threat level posed by the moves counted by the last
+     * Rules#countMoves() call, by counting threatened opponent pieces based on move lengths.
+     * @param rules Rules instance that counted the moves
      * @return int The calculated threat score
      */
-    private int evaluateThreatLevelFromMoves(ArrayList<int[]> arlist){
+    private static int evaluateThreatLevel(Rules rules){
 
         if(rules.getLevelOfPlays()==0)
             return 0;
         else{
-            int score=0;
-            int temp;
-            for (int[] ints : arlist) {
-                temp = ints.length;
-                switch (temp) {
-                    case 4 -> score += 1;
-                    case 6 -> score += 2;
-                    default -> score += 3;  //possible jumps longer than 3 pieces
-                }
+            int score = rules.getJumpSequenceCount(1) + 2 * rules.getJumpSequenceCount(2);
+            for (int jumps = 3; jumps <= rules.getLevelOfPlays(); jumps++) {
+                score += 3 * rules.getJumpSequenceCount(jumps);  //possible jumps longer than 3 pieces
             }
             return score;
         }
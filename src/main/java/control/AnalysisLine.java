@@ -0,0 +1,50 @@
+package control;
+
+
+import java.util.List;
+
+
+/**
+ * One of the ranked root moves returned by {@link AI#analyze(char[][], SearchLimits, int)}:
+ * the move, its exact score and the principal variation that starts with it.
+ */
+public class AnalysisLine {
+    private final int[] move;
+    private final int score;
+    private final List<int[]> principalVariation;
+
+    /**
+     * Constructor
+     * @param score              score of the move from the ai's point of view
+     * @param principalVariation moves of both players expected after the position, starting with the root move
+     */
+    AnalysisLine(int score, List<int[]> principalVariation) {
+        this.move = principalVariation.get(0);
+        this.score = score;
+        this.principalVariation = List.copyOf(principalVariation);
+    }
+
+    /**
+     * Getter for the root move
+     * @return move in a int[]
+     */
+    public int[] getMove() {
+        return move;
+    }
+
+    /**
+     * Getter for the score
+     * @return score of the move from the ai's point of view
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Getter for the principal variation
+     * @return moves alternating between the ai and its opponent, the first one is getMove()
+     */
+    public List<int[]> getPrincipalVariation() {
+        return principalVariation;
+    }
+}
@@ -0,0 +1,131 @@
+package control;
+
+
+/**
+ * Measures the search on a fixed set of midgame positions. Prints the nodes visited per depth
+ * by plain alpha-beta and by principal variation search with aspiration windows, both
+ * without late move reductions or draw detection, and the hit rate of the evaluation cache
+ * in the latter. Then compares the nodes of a multi-PV analysis of the best lines with
+ * those of a single-PV analysis. Last, measures the nodes
+ * and time of king endgames, where the search keeps going through the same positions,
+ * without and with draw detection.
+ * <pre>
+ * Benchmark [maxDepth] [lines] [endgameDepth]
+ * </pre>
+ */
+public class Benchmark {
+
+    static final String[][] MIDGAME_POSITIONS = {
+            { "0 1 b","0 3 b","0 5 b","1 0 b","1 4 b","2 1 b","2 3 b","2 7 b","3 4 b",
+              "4 1 r","5 0 r","5 2 r","5 6 r","6 1 r","6 5 r","7 0 r","7 4 r","6 7 r" },
+            { "0 1 b","0 5 b","0 7 b","1 2 b","1 6 b","2 3 b","3 0 b","3 6 b",
+              "4 3 r","5 2 r","5 4 r","6 3 r","6 7 r","7 2 r","7 6 r","4 7 r" },
+            { "0 3 b","1 2 b","1 4 b","2 5 b","3 2 b","2 1 B",
+              "4 5 r","5 0 r","5 4 r","6 3 r","7 6 r","4 1 R" },
+            { "0 1 b","0 3 b","0 5 b","0 7 b","1 0 b","1 2 b","1 4 b","1 6 b","2 1 b","2 3 b","2 5 b","2 7 b",
+              "5 0 r","5 2 r","5 4 r","5 6 r","6 1 r","6 3 r","6 5 r","6 7 r","7 0 r","7 2 r","7 4 r","7 6 r" }
+    };
+
+    static final String[][] KING_ENDGAME_POSITIONS = {
+            { "1 2 B","6 5 R" },
+            { "2 1 B","4 3 B","6 5 R" },
+            { "3 0 B","2 7 B","5 2 R","4 5 R" },
+            { "0 3 B","2 5 B","3 2 B","5 4 R","7 2 R" },
+            { "1 0 b","2 3 B","4 1 B","5 6 r","6 3 R","7 4 R" }
+    };
+
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int endgameDepth = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+
+        System.out.println("pos depth      alpha-beta             pvs   ratio  eval hits");
+        for (int p = 0; p < MIDGAME_POSITIONS.length; p++) {
+            char[][] board = Game.generateBoardFromInput(MIDGAME_POSITIONS[p]);
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                long plain = search(board, depth, false).getNodeCount();
+                AI ai = search(board, depth, true);
+                long pvs = ai.getNodeCount();
+                System.out.printf("%3d %5d %15d %15d %7.2f %9.1f%%%n", p, depth, plain, pvs, (double) pvs / plain,
+                        100 * ai.getEvalCache().getHitRate());
+            }
+        }
+
+        System.out.println();
+        System.out.println("pos depth       single-pv   multi-pv (" + lines + ")   ratio");
+        for (int p = 0; p < MIDGAME_POSITIONS.length; p++) {
+            char[][] board = Game.generateBoardFromInput(MIDGAME_POSITIONS[p]);
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                long single = analyze(board, depth, 1);
+                long multi = analyze(board, depth, lines);
+                System.out.printf("%3d %5d %15d %15d %7.2f%n", p, depth, single, multi, (double) multi / single);
+            }
+        }
+
+        System.out.println();
+        System.out.println("end depth        no draws   ms       draws   ms   ratio");
+        for (int p = 0; p < KING_ENDGAME_POSITIONS.length; p++) {
+            char[][] board = Game.generateBoardFromInput(KING_ENDGAME_POSITIONS[p]);
+            for (int depth = Math.max(1, endgameDepth - 3); depth <= endgameDepth; depth++) {
+                long start = System.nanoTime();
+                long plain = searchEndgame(board, depth, false);
+                long plainMillis = (System.nanoTime() - start) / 1_000_000;
+                start = System.nanoTime();
+                long draws = searchEndgame(board, depth, true);
+                long drawsMillis = (System.nanoTime() - start) / 1_000_000;
+                System.out.printf("%3d %5d %15d %4d %11d %4d %7.2f%n", p, depth, plain, plainMillis, draws, drawsMillis,
+                        (double) draws / plain);
+            }
+        }
+    }
+
+    /**
+     * Runs a full search with a new AI.
+     * @param board position, the ai moves
+     * @param depth search depth
+     * @param draws draw detection (repetitions and plies without a capture)
+     * @return nodes visited
+     */
+    private static long searchEndgame(char[][] board, int depth, boolean draws){
+        AI ai = new AI();
+        ai.TOP_RECURSION_LEVEL = depth;
+        ai.useDrawDetection = draws;
+        ai.setBoard(board);
+        ai.playAi();
+        return ai.getNodeCount();
+    }
+
+    /**
+     * Runs an analysis with a new AI.
+     * @param board position, the ai moves
+     * @param depth search depth
+     * @param lines number of ranked moves
+     * @return nodes visited
+     */
+    private static long analyze(char[][] board, int depth, int lines){
+        AI ai = new AI();
+        ai.analyze(board, new SearchLimits(depth, 0), lines);
+        return ai.getNodeCount();
+    }
+
+    /**
+     * Runs a full search with a new AI.
+     * @param board position, the ai moves
+     * @param depth search depth
+     * @param pvs   principal variation search and aspiration windows, or plain alpha-beta
+     * @return the AI, to read its node count
+     */
+    private static AI search(char[][] board, int depth, boolean pvs){
+        AI ai = new AI();
+        ai.TOP_RECURSION_LEVEL = depth;
+        // only the pvs and aspiration windows differ between the two columns
+        ai.useLateMoveReductions = false;
+        ai.useDrawDetection = false;
+        ai.usePvs = pvs;
+        if (!pvs)
+            ai.ASPIRATION_WINDOW = 0;
+        ai.setBoard(board);
+        ai.playAi();
+        return ai;
+    }
+}
@@ -0,0 +1,109 @@
+package control;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Fixed size, lossy cache of leaf scores keyed by position hash (which includes the side to move).
+ * A new entry simply overwrites whatever was in its slot. Entries are kept in two primitive
+ * arrays without locks: the stored key is xored with the score, so a slot torn by two threads
+ * writing at once reads as a miss instead of a wrong score. Can be shared by concurrent searches.
+ */
+public class EvalCache {
+
+    /**
+     * Returned by probe when the position is not in the cache
+     */
+    static final int MISS = Integer.MIN_VALUE;
+
+    private final long[] keys;
+    private final int[] scores;
+    private final int mask;
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Constructor
+     * @param entries number of slots, rounded up to a power of two
+     */
+    public EvalCache(int entries) {
+        if (entries < 1 || entries > 1 << 30)
+            throw new IllegalArgumentException("entries out of range: " + entries);
+        int size = Integer.highestOneBit(entries);
+        if (size < entries)
+            size <<= 1;
+        keys = new long[size];
+        scores = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Looks up the score of a position.
+     * @param hash position hash
+     * @return cached score, or MISS
+     */
+    int probe(long hash) {
+        probes.increment();
+        int index = (int) hash & mask;
+        int score = scores[index];
+        if ((keys[index] ^ score) != hash)
+            return MISS;
+        hits.increment();
+        return score;
+    }
+
+    /**
+     * Stores the score of a position, replacing the slot's previous entry.
+     * @param hash  position hash
+     * @param score score, anything but MISS
+     */
+    void store(long hash, int score) {
+        int index = (int) hash & mask;
+        scores[index] = score;
+        keys[index] = hash ^ score;
+    }
+
+    /**
+     * Empties the cache, needed when the evaluation weights change. Counters are kept.
+     */
+    public void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 0;
+            scores[i] = 0;
+        }
+    }
+
+    /**
+     * Number of slots
+     * @return size
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Number of lookups since the cache was created
+     * @return probes
+     */
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    /**
+     * Number of lookups that found their position
+     * @return hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Fraction of lookups that found their position
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long total = probes.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+}
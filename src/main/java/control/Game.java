@@ -10,14 +10,25 @@ import java.util.Random;
  */
 public class Game {
     private final AI ai;
+    private final PositionGenerator generator;
     private char[][] board;
 
     
     /**
-     * Constructor
+     * Constructor. Random boards are different on every run.
      */
     public Game() {
+        this(new Random().nextLong());
+    }
+
+    /**
+     * Constructor
+     * @param seed seed of the random boards, the same seed gives the same boards
+     */
+    public Game(long seed) {
         ai = new AI();
+        generator = new PositionGenerator(seed);
+        generator.setPieceRange(5, 6);
     }
     
     /**
@@ -61,7 +72,7 @@ public class Game {
      * @param positions  Strings representing row,col,piece for starting positions
      * @return initialized game board
      */
-    private char[][] generateBoardFromInput(String[] positions){
+    static char[][] generateBoardFromInput(String[] positions){
         char[][] board  = new char[8][8];
         for(int i=0; i<8; i++){
             for(int j=0; j<8; j++){
@@ -81,47 +92,31 @@ public class Game {
     }
     
     /**
-     * Generates a random game board with around 5 pieces for each player.
-     * @return randomly initialized game board
+     * Generates the board at the start of a game: black (the ai) on the playable
+     * squares of rows 0-2 and red on those of rows 5-7.
+     * @return new board
      */
-    private char[][] generateRandomBoard(){
-        char[][] board  = new char[8][8];
-        char[] pieceType = {'r','R','b','B'};
-        int rCount=0,bCount=0;
-        Random random = new Random();
-
+    static char[][] initialBoard(){
+        char[][] board = generateBoardFromInput(new String[0]);
         for(int i=0; i<8; i++){
             for(int j=0; j<8; j++){
-                if( (i+j) % 2 == 0)
-                    board[i][j] = '\0';
-                else{
-                    board[i][j] = 'e';
-                }
-            }
-        }
-
-        while (rCount <= 4 || bCount <= 4) {
-            int randRow = random.nextInt(8);
-            int randCol = random.nextInt(8);
-            if( (randRow+randCol) % 2 == 0)
-                    continue;
-            char nextPiece = pieceType[random.nextInt(4)];
-
-            if(rCount>5 && (nextPiece=='r' || nextPiece=='R'))
-                continue;
-            else if (bCount>5 && (nextPiece=='b' || nextPiece=='B'))
-                continue;
- 
-            switch (nextPiece){
-                case 'r', 'R' -> rCount++;
-                case 'b', 'B' -> bCount++;
+                if(board[i][j] == 'e' && i < 3)
+                    board[i][j] = 'b';
+                else if(board[i][j] == 'e' && i > 4)
+                    board[i][j] = 'r';
             }
-            board[randRow][randCol] = nextPiece;
         }
-        
         return board;
     }
 
+    /**
+     * Generates a random game board with 5 or 6 pieces for each player.
+     * @return randomly initialized game board
+     */
+    private char[][] generateRandomBoard(){
+        return generator.nextBoard();
+    }
+
     /**
      * Updates the board with the given move.
      * @param play jugada
@@ -0,0 +1,132 @@
+package control;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Game kept by a SessionManager: the position in PackedBoard form and the moves played so far,
+ * each one encoded as its number of squares followed by the squares (see Rules#square(int, int)),
+ * so a simple move takes 3 bytes. The board is only unpacked while a move is checked or searched.
+ * Guarded by its own monitor.
+ */
+final class GameSession {
+
+    // Game.initialBoard() in packed form, the position of every new session.
+    private static final int[] INITIAL = new int[PackedBoard.LENGTH];
+
+    static {
+        PackedBoard.pack(Game.initialBoard(), false, INITIAL);
+    }
+
+    private static final byte[] NO_MOVES = new byte[0];
+
+    final long id;
+    final int[] position = new int[PackedBoard.LENGTH];
+    private byte[] history = NO_MOVES;
+    private int historyLength;
+
+    // System.nanoTime() of the last access, to find the idle sessions.
+    long lastAccess;
+    // An ai move is queued or being searched: the session can't be changed or evicted.
+    boolean searching;
+    // Written to the store and removed from memory, a reference still held must be looked up again.
+    boolean evicted;
+
+    /**
+     * Constructor of a session at the initial position.
+     * @param id      session id
+     * @param aiMoves true if the ai (black) moves first
+     */
+    GameSession(long id, boolean aiMoves) {
+        this.id = id;
+        System.arraycopy(INITIAL, 0, position, 0, PackedBoard.LENGTH);
+        position[PackedBoard.SIDE] = aiMoves ? 1 : 0;
+        lastAccess = System.nanoTime();
+    }
+
+    /**
+     * Checks if the ai moves.
+     * @return boolean
+     */
+    boolean isAiToMove() {
+        return position[PackedBoard.SIDE] == 1;
+    }
+
+    /**
+     * Plays a legal move of the side to move and adds it to the history.
+     * @param play move in a int[]
+     */
+    void play(int[] play) {
+        PackedBoard.applyMove(position, play);
+        int size = play.length / 2;
+        if (historyLength + size + 1 > history.length)
+            history = Arrays.copyOf(history, Math.max(16, Math.max(2 * history.length, historyLength + size + 1)));
+        history[historyLength++] = (byte) size;
+        for (int i = 0; i < play.length; i += 2)
+            history[historyLength++] = (byte) Rules.square(play[i], play[i + 1]);
+    }
+
+    /**
+     * Counts the plies since the last capture, or since the start if there was none.
+     * @return number of plies
+     */
+    int quietPlies() {
+        int quiet = 0;
+        for (int i = 0; i < historyLength; i += history[i] + 1) {
+            int from = history[i + 1];
+            int to = history[i + 2];
+            quiet = Math.abs(Rules.SQUARE_ROW[to] - Rules.SQUARE_ROW[from]) == 2 ? 0 : quiet + 1;
+        }
+        return quiet;
+    }
+
+    /**
+     * Decodes the history.
+     * @return moves in the order they were played
+     */
+    List<int[]> moves() {
+        List<int[]> moves = new ArrayList<>();
+        for (int i = 0; i < historyLength; ) {
+            int[] play = new int[2 * history[i++]];
+            for (int j = 0; j < play.length; j += 2) {
+                int sq = history[i++];
+                play[j] = Rules.SQUARE_ROW[sq];
+                play[j + 1] = Rules.SQUARE_COL[sq];
+            }
+            moves.add(play);
+        }
+        return moves;
+    }
+
+    /**
+     * Writes the position and the history.
+     * @param out output
+     */
+    void write(DataOutput out) throws IOException {
+        PackedBoard.write(out, position);
+        out.writeInt(historyLength);
+        out.write(history, 0, historyLength);
+    }
+
+    /**
+     * Reads a session written by write(DataOutput).
+     * @param id session id
+     * @param in input
+     * @return session
+     */
+    static GameSession read(long id, DataInput in) throws IOException {
+        GameSession session = new GameSession(id, false);
+        if (!PackedBoard.read(in, session.position))
+            throw new IOException("empty session " + id);
+        session.historyLength = in.readInt();
+        session.history = new byte[session.historyLength];
+        in.readFully(session.history);
+        return session;
+    }
+}
@@ -0,0 +1,203 @@
+package control;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Differential fuzzing of the move generator. For seeded random positions (see PositionGenerator)
+ * compares Rules#bestMoves with referenceMoves, an independent generator written straight from
+ * the rules on the board (it shares no code with Rules, so a bug in the table driven jump walk
+ * can't show up on both sides). Then compares bestMoves with the counting generator (countMoves,
+ * hasCapture, maxJumpLength, getJumpSequenceCount) and checks every generated move on the board.
+ * Prints the first mismatching positions. Arguments: count seed
+ */
+public class MoveGeneratorFuzz {
+
+    // Mismatches printed before the rest are only counted.
+    private static final int MAX_REPORTED = 10;
+
+    private final Rules rules = new Rules();
+    private final AI ai = new AI(Runnable::run, new EvalCache(1));
+    private final char[][] board = new char[8][8];
+    private long positions;
+    private long moves;
+    private long mismatches;
+
+    public static void main(String[] args) {
+        long count = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        // every other position has a capture for the side to move, so the jump generator gets half the work
+        PositionGenerator any = new PositionGenerator(seed);
+        PositionGenerator captures = new PositionGenerator(seed + 1);
+        captures.setCaptureFilter(PositionGenerator.CaptureFilter.REQUIRED);
+
+        MoveGeneratorFuzz fuzz = new MoveGeneratorFuzz();
+        int[] packed = new int[PackedBoard.LENGTH];
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            (i % 2 == 0 ? any : captures).next(packed);
+            fuzz.check(packed);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d positions, %d moves, %d mismatches in %.2f s (%.0f positions/s)%n",
+                fuzz.positions, fuzz.moves, fuzz.mismatches, seconds, fuzz.positions / seconds);
+        if (fuzz.mismatches > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Checks one position.
+     * @param packed packed position
+     */
+    void check(int[] packed) {
+        positions++;
+        boolean side = packed[PackedBoard.SIDE] == 1;
+        PackedBoard.unpack(packed, board);
+        rules.setPropertiesForPlayer(board, side);
+        ArrayList<int[]> list = rules.bestMoves();
+        int level = rules.getLevelOfPlays();
+        moves += list.size();
+
+        List<String> generated = sortedMoves(list);
+        List<String> expected = sortedMoves(referenceMoves(board, side));
+        if (!generated.equals(expected))
+            report(packed, "bestMoves " + generated + " != reference " + expected);
+
+        int[] sequences = new int[13];
+        for (int[] play : list) {
+            int jumps = level == 0 ? 0 : play.length / 2 - 1;
+            if (jumps > 0)
+                sequences[jumps]++;
+            String error = checkMove(play, side, level);
+            if (error != null)
+                report(packed, error + " " + Arrays.toString(play));
+        }
+
+        int count = rules.countMoves();
+        if (count != list.size())
+            report(packed, "countMoves " + count + " != bestMoves " + list.size());
+        if (rules.getLevelOfPlays() != level)
+            report(packed, "countMoves level " + rules.getLevelOfPlays() + " != " + level);
+        for (int jumps = 1; jumps < sequences.length; jumps++) {
+            if (rules.getJumpSequenceCount(jumps) != sequences[jumps])
+                report(packed, "sequences of " + jumps + " jumps: " + rules.getJumpSequenceCount(jumps) + " != " + sequences[jumps]);
+        }
+        if (rules.hasCapture() != (level > 0))
+            report(packed, "hasCapture " + rules.hasCapture() + " with level " + level);
+        if (rules.maxJumpLength() != level)
+            report(packed, "maxJumpLength " + rules.maxJumpLength() + " != " + level);
+    }
+
+    /**
+     * Plays the move on a copy of the board and checks the result.
+     * @param play  move
+     * @param side  true if the ai moves
+     * @param level level of the position's moves
+     * @return description of the problem, null if the move is fine
+     */
+    private String checkMove(int[] play, boolean side, int level) {
+        char piece = board[play[0]][play[1]];
+        boolean own = side ? piece == 'b' || piece == 'B' : piece == 'r' || piece == 'R';
+        if (!own)
+            return "doesn't start on an own piece";
+        if ((level == 0) != (play.length == 4 && Math.abs(play[2] - play[0]) == 1))
+            return "single move mixed with jumps";
+        char[][] after = new char[8][];
+        for (int r = 0; r < 8; r++)
+            after[r] = board[r].clone();
+        ai.makeTheMove(play, after);
+        int[] before = new int[PackedBoard.LENGTH];
+        int[] now = new int[PackedBoard.LENGTH];
+        PackedBoard.pack(board, side, before);
+        PackedBoard.pack(after, side, now);
+        int own0 = side ? PackedBoard.BLACK : PackedBoard.RED;
+        int opponent = 1 - own0;
+        if (Integer.bitCount(now[own0]) != Integer.bitCount(before[own0]))
+            return "own piece count changed";
+        if (Integer.bitCount(before[opponent]) - Integer.bitCount(now[opponent]) != (level == 0 ? 0 : play.length / 2 - 1))
+            return "captured pieces don't match the jumps";
+        return null;
+    }
+
+    /**
+     * Reference move generator: every jump sequence if the side to move has a capture, the simple
+     * moves otherwise. Men move and jump forward only (black down, red up), kings in the four
+     * directions. A sequence goes on while there's a jump, the jumped pieces stay on the board
+     * until the end of the move and can't be jumped twice, and the moving piece keeps its start square.
+     * @param board board, left as it was
+     * @param side  true if the ai (black) moves
+     * @return moves [startRow, startCol, endRow1, endCol1, ...]
+     */
+    static List<int[]> referenceMoves(char[][] board, boolean side) {
+        char[][] work = new char[8][];
+        for (int r = 0; r < 8; r++)
+            work[r] = board[r].clone();
+        List<int[]> jumps = new ArrayList<>();
+        List<int[]> simple = new ArrayList<>();
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                char piece = work[r][c];
+                if (side ? piece != 'b' && piece != 'B' : piece != 'r' && piece != 'R')
+                    continue;
+                int[] rowSteps = piece == 'b' ? new int[]{1} : piece == 'r' ? new int[]{-1} : new int[]{-1, 1};
+                referenceJumps(work, side, rowSteps, new int[]{r, c}, jumps);
+                for (int dr : rowSteps) {
+                    for (int dc = -1; dc <= 1; dc += 2) {
+                        if (onBoard(r + dr, c + dc) && work[r + dr][c + dc] == 'e')
+                            simple.add(new int[]{r, c, r + dr, c + dc});
+                    }
+                }
+            }
+        }
+        return jumps.isEmpty() ? simple : jumps;
+    }
+
+    /**
+     * Follows every jump from the last square of the path, adding the complete sequences to moves.
+     */
+    private static void referenceJumps(char[][] board, boolean side, int[] rowSteps, int[] path, List<int[]> moves) {
+        int r = path[path.length - 2];
+        int c = path[path.length - 1];
+        boolean jumped = false;
+        for (int dr : rowSteps) {
+            for (int dc = -1; dc <= 1; dc += 2) {
+                if (!onBoard(r + 2 * dr, c + 2 * dc) || board[r + 2 * dr][c + 2 * dc] != 'e')
+                    continue;
+                char middle = board[r + dr][c + dc];
+                if (side ? middle != 'r' && middle != 'R' : middle != 'b' && middle != 'B')
+                    continue;
+                jumped = true;
+                board[r + dr][c + dc] = '*';
+                int[] longer = Arrays.copyOf(path, path.length + 2);
+                longer[path.length] = r + 2 * dr;
+                longer[path.length + 1] = c + 2 * dc;
+                referenceJumps(board, side, rowSteps, longer, moves);
+                board[r + dr][c + dc] = middle;
+            }
+        }
+        if (!jumped && path.length > 2)
+            moves.add(path);
+    }
+
+    private static boolean onBoard(int r, int c) {
+        return r >= 0 && r < 8 && c >= 0 && c < 8;
+    }
+
+    /**
+     * Moves as strings in a fixed order, to compare lists generated in different orders.
+     */
+    private static List<String> sortedMoves(List<int[]> moves) {
+        return moves.stream().map(Arrays::toString).sorted().toList();
+    }
+
+    private void report(int[] packed, String message) {
+        if (mismatches++ < MAX_REPORTED) {
+            System.out.printf("mismatch %08x %08x %08x %d: %s%n", packed[PackedBoard.BLACK], packed[PackedBoard.RED],
+                    packed[PackedBoard.KINGS], packed[PackedBoard.SIDE], message);
+        }
+    }
+}
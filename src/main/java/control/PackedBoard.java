@@ -0,0 +1,142 @@
+package control;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+
+/**
+ * Compact form of a position: one bit per playable square (see Rules#square(int, int)) for the
+ * black pieces, the red pieces and the kings, plus the side to move, in an int[LENGTH].
+ * Serialized as a 13 byte record: the three masks big-endian and a side byte.
+ */
+final class PackedBoard {
+
+    static final int BLACK = 0;
+    static final int RED = 1;
+    static final int KINGS = 2;
+    static final int SIDE = 3;     // 1 if the ai (black) moves
+    static final int LENGTH = 4;
+
+    static final int RECORD_BYTES = 13;
+
+    private PackedBoard() {}
+
+    /**
+     * Packs the board.
+     * @param board board
+     * @param ai    true if the ai moves
+     * @param out   receives the packed position
+     */
+    static void pack(char[][] board, boolean ai, int[] out) {
+        int black = 0, red = 0, kings = 0;
+        for (int sq = 0; sq < 32; sq++) {
+            int bit = 1 << sq;
+            switch (board[Rules.SQUARE_ROW[sq]][Rules.SQUARE_COL[sq]]) {
+                case 'b' -> black |= bit;
+                case 'B' -> { black |= bit; kings |= bit; }
+                case 'r' -> red |= bit;
+                case 'R' -> { red |= bit; kings |= bit; }
+                default -> { }
+            }
+        }
+        out[BLACK] = black;
+        out[RED] = red;
+        out[KINGS] = kings;
+        out[SIDE] = ai ? 1 : 0;
+    }
+
+    /**
+     * Writes the packed position on a board, in the format used by Game (playable squares 'e'
+     * when empty, the others '\0').
+     * @param packed packed position
+     * @param board  8x8 board to overwrite
+     */
+    static void unpack(int[] packed, char[][] board) {
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++)
+                board[r][c] = (r + c) % 2 == 0 ? '\0' : 'e';
+        }
+        for (int sq = 0; sq < 32; sq++) {
+            int bit = 1 << sq;
+            boolean king = (packed[KINGS] & bit) != 0;
+            char piece;
+            if ((packed[BLACK] & bit) != 0)
+                piece = king ? 'B' : 'b';
+            else if ((packed[RED] & bit) != 0)
+                piece = king ? 'R' : 'r';
+            else
+                continue;
+            board[Rules.SQUARE_ROW[sq]][Rules.SQUARE_COL[sq]] = piece;
+        }
+    }
+
+    /**
+     * Unpacks the position on a new board.
+     * @param packed packed position
+     * @return board
+     */
+    static char[][] unpack(int[] packed) {
+        char[][] board = new char[8][8];
+        unpack(packed, board);
+        return board;
+    }
+
+    /**
+     * Plays a move on the packed position, like AI#makeTheMove(int[], char[][]) on a board:
+     * removes the jumped pieces, crowns a man reaching the last row, and passes the turn.
+     * @param packed packed position, updated in place
+     * @param play   legal move of the side to move [startRow, startCol, endRow1, endCol1, ...]
+     */
+    static void applyMove(int[] packed, int[] play) {
+        int own = packed[SIDE] == 1 ? BLACK : RED;
+        int from = 1 << Rules.square(play[0], play[1]);
+        boolean king = (packed[KINGS] & from) != 0;
+        int captured = 0;
+        for (int i = 2; i < play.length; i += 2) {
+            if (Math.abs(play[i] - play[i - 2]) == 2)
+                captured |= 1 << Rules.square((play[i] + play[i - 2]) / 2, (play[i + 1] + play[i - 1]) / 2);
+        }
+        int lastRow = play[play.length - 2];
+        int to = 1 << Rules.square(lastRow, play[play.length - 1]);
+        packed[BLACK] &= ~captured;
+        packed[RED] &= ~captured;
+        packed[KINGS] &= ~(captured | from);
+        packed[own] = packed[own] & ~from | to;
+        if (king || lastRow == (own == BLACK ? 7 : 0))
+            packed[KINGS] |= to;
+        packed[SIDE] ^= 1;
+    }
+
+    /**
+     * Writes a RECORD_BYTES record.
+     * @param out    output
+     * @param packed packed position
+     */
+    static void write(DataOutput out, int[] packed) throws IOException {
+        out.writeInt(packed[BLACK]);
+        out.writeInt(packed[RED]);
+        out.writeInt(packed[KINGS]);
+        out.writeByte(packed[SIDE]);
+    }
+
+    /**
+     * Reads a RECORD_BYTES record.
+     * @param in     input
+     * @param packed receives the packed position
+     * @return false at the end of the input
+     */
+    static boolean read(DataInput in, int[] packed) throws IOException {
+        try {
+            packed[BLACK] = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        packed[RED] = in.readInt();
+        packed[KINGS] = in.readInt();
+        packed[SIDE] = in.readByte();
+        return true;
+    }
+}
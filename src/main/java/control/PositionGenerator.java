@@ -0,0 +1,183 @@
+package control;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+
+/**
+ * Seeded generator of legal positions by constrained placement: a random number of pieces per
+ * side in the configured range, kings anywhere, men never on their own promotion row. The same
+ * seed and filters always produce the same positions. Positions are produced packed
+ * (see PackedBoard) and can be written as a binary file of PackedBoard records.
+ */
+public class PositionGenerator {
+
+    /**
+     * Filter on the captures available to the side to move
+     */
+    public enum CaptureFilter {ANY, REQUIRED, FORBIDDEN}
+
+    // Row 7, where black men are crowned, and row 0, where red men are.
+    private static final int BLACK_PROMOTION_ROW = 0xF0000000;
+    private static final int RED_PROMOTION_ROW = 0x0000000F;
+
+    private final SplittableRandom random;
+    private final Rules rules = new Rules();
+    private final char[][] board = new char[8][8];
+
+    private int minPieces = 1;
+    private int maxPieces = 12;
+    private int maxKings = 12;
+    private CaptureFilter captureFilter = CaptureFilter.ANY;
+    private long rejected;
+
+    /**
+     * Constructor
+     * @param seed seed of the random sequence
+     */
+    public PositionGenerator(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Sets the number of pieces of each side.
+     * @param min at least 1
+     * @param max at most 12
+     */
+    public void setPieceRange(int min, int max) {
+        if (min < 1 || max > 12 || min > max)
+            throw new IllegalArgumentException("invalid piece range: " + min + "-" + max);
+        minPieces = min;
+        maxPieces = max;
+    }
+
+    /**
+     * Sets the maximum number of kings of each side.
+     * @param max kings, 0 for positions with men only
+     */
+    public void setMaxKings(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("maxKings can't be negative: " + max);
+        maxKings = max;
+    }
+
+    /**
+     * Sets the filter on the captures of the side to move.
+     * @param filter capture filter
+     */
+    public void setCaptureFilter(CaptureFilter filter) {
+        captureFilter = filter;
+    }
+
+    /**
+     * Number of positions discarded by the capture filter so far
+     * @return rejected positions
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Generates the next position that passes the filters.
+     * @param out receives the packed position (PackedBoard.LENGTH ints)
+     */
+    public void next(int[] out) {
+        while (true) {
+            place(out);
+            if (captureFilter == CaptureFilter.ANY)
+                return;
+            PackedBoard.unpack(out, board);
+            rules.setPropertiesForPlayer(board, out[PackedBoard.SIDE] == 1);
+            if (rules.hasCapture() == (captureFilter == CaptureFilter.REQUIRED))
+                return;
+            rejected++;
+        }
+    }
+
+    /**
+     * Generates the next position on a new board.
+     * @return board, the side to move is lost
+     * @see PositionGenerator#next(int[])
+     */
+    public char[][] nextBoard() {
+        int[] packed = new int[PackedBoard.LENGTH];
+        next(packed);
+        return PackedBoard.unpack(packed);
+    }
+
+    /**
+     * Writes count positions as PackedBoard records.
+     * @param out   output
+     * @param count number of positions
+     */
+    public void write(OutputStream out, long count) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        int[] packed = new int[PackedBoard.LENGTH];
+        for (long i = 0; i < count; i++) {
+            next(packed);
+            PackedBoard.write(data, packed);
+        }
+        data.flush();
+    }
+
+    /**
+     * Places the pieces of both sides and picks the side to move.
+     * @param out receives the packed position
+     */
+    private void place(int[] out) {
+        int occupied = 0;
+        int kings = 0;
+        for (int side = 0; side < 2; side++) {
+            int pieces = minPieces + random.nextInt(maxPieces - minPieces + 1);
+            int sideKings = random.nextInt(Math.min(pieces, maxKings) + 1);
+            int forbiddenForMen = side == PackedBoard.BLACK ? BLACK_PROMOTION_ROW : RED_PROMOTION_ROW;
+            int mask = 0;
+            for (int i = 0; i < pieces; i++) {
+                boolean king = i < sideKings;
+                int blocked = king ? occupied : occupied | forbiddenForMen;
+                int bit;
+                do {
+                    bit = 1 << random.nextInt(32);
+                } while ((blocked & bit) != 0);
+                occupied |= bit;
+                mask |= bit;
+                if (king)
+                    kings |= bit;
+            }
+            out[side] = mask;
+        }
+        out[PackedBoard.KINGS] = kings;
+        out[PackedBoard.SIDE] = random.nextInt(2);
+    }
+
+    /**
+     * Writes a file of positions.
+     * Arguments: count seed file [minPieces maxPieces maxKings any|required|forbidden]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("usage: PositionGenerator count seed file [minPieces maxPieces maxKings any|required|forbidden]");
+            return;
+        }
+        long count = Long.parseLong(args[0]);
+        PositionGenerator generator = new PositionGenerator(Long.parseLong(args[1]));
+        if (args.length >= 7) {
+            generator.setPieceRange(Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            generator.setMaxKings(Integer.parseInt(args[5]));
+            generator.setCaptureFilter(CaptureFilter.valueOf(args[6].toUpperCase()));
+        }
+        long start = System.nanoTime();
+        try (OutputStream out = Files.newOutputStream(Path.of(args[2]))) {
+            generator.write(out, count);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d positions (%d rejected) in %.2f s, %.0f positions/s%n",
+                count, generator.getRejected(), seconds, count / seconds);
+    }
+}
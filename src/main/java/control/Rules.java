@@ -2,26 +2,79 @@ package control;
 
 import java.util.*;
 
-/** 
+/**
  * Encapsulates all checkers game rules validation. Implements Singleton pattern.
+ * An instance keeps the position being checked, so code running searches on other
+ * threads creates its own instance instead of sharing the singleton.
  */
 public class Rules {
     // http://www.wcdf.net/rules.htm
     //SINGLETON implementation
 
     private static Rules instance;
+
+    /**
+     * Marks a piece already jumped in the sequence being generated
+     */
+    private static final char CAPTURED = 'x';
+
+    /**
+     * Marks a neighbour or jump landing square that falls off the board
+     */
+    static final int OFF_BOARD = -1;
+
+    /**
+     * Row and column of each of the 32 playable squares. Squares are numbered
+     * row by row, 4 per row: square = row * 4 + col / 2.
+     */
+    static final int[] SQUARE_ROW = new int[32];
+    static final int[] SQUARE_COL = new int[32];
+
+    /**
+     * For each playable square and direction (up-left, up-right, down-right, down-left),
+     * the adjacent square and the square where a jump over it lands, or OFF_BOARD.
+     * Built once at class load and only read afterwards, so they are shared by all threads.
+     */
+    static final int[][] NEIGHBOR = new int[32][4];
+    static final int[][] JUMP = new int[32][4];
+
+    static {
+        int[] vertical = {-1, -1, +1, +1};
+        int[] horizontal = {-1, +1, +1, -1};
+        for(int sq=0; sq<32; sq++){
+            int row = sq / 4;
+            int col = 2 * (sq % 4) + (row % 2 == 0 ? 1 : 0);
+            SQUARE_ROW[sq] = row;
+            SQUARE_COL[sq] = col;
+            for(int d=0; d<4; d++){
+                NEIGHBOR[sq][d] = square(row + vertical[d], col + horizontal[d]);
+                JUMP[sq][d] = square(row + 2 * vertical[d], col + 2 * horizontal[d]);
+            }
+        }
+    }
+
     private char[][] localBoard;
     private boolean ai;
-    private boolean isKing;
 
     /**
-     * Stores arrays with the coordinates of each multiple jump
+     * Pieces of the active player and of the opponent
      */
-	private ArrayList<int[]> jumpTree; 
-    
+    private char ownMan, ownKing, opponentMan, opponentKing;
+
+    /**
+     * Range of directions the piece being checked can move to. Kings use all four,
+     * black men (the ai) only the down ones and red men only the up ones.
+     */
+    private int firstDirection, lastDirection;
+
+    /**
+     * Squares visited by the jump sequence being generated, starting with the piece's square
+     */
+    private final int[] jumpPath = new int[13];
+
     /**
      * Tracks the maximum jump sequence length encountered while recursively searching
-     * all possible jumps from the current position. Used only temporarily during 
+     * all possible jumps from the current position. Used only temporarily during
      * move generation logic.
      */
     private int maxFoundJumpLength;
@@ -32,8 +85,14 @@ public class Rules {
      */
     private int positionJumpLevel;
 
-    
-    private Rules(){}
+    /**
+     * Number of jump sequences of each length found by the last count,
+     * indexed by jump length (sequences can't be longer than the 12 opponent pieces).
+     */
+    private final int[] jumpSequenceCount = new int[13];
+
+
+    Rules(){}
 
     /**
      * Provides access to the singleton instance of the Rules class.
@@ -52,9 +111,13 @@ public class Rules {
     public void setPropertiesForPlayer(char[][] board, boolean ai){
         localBoard = board;
         this.ai = ai;
+        ownMan = ai ? 'b' : 'r';
+        ownKing = ai ? 'B' : 'R';
+        opponentMan = ai ? 'r' : 'b';
+        opponentKing = ai ? 'R' : 'B';
     }
 
-    
+
     /**
      * Checks if the piece at the given position has been crowned according to the game rules.
      * @param piece type of piece (red or black)
@@ -67,7 +130,7 @@ public class Rules {
     }
 
 	/**
-	 * Returns the "level or priority" of possible moves 
+	 * Returns the "level or priority" of possible moves
      * (0 = "normal moves" or 1,2,3... "length" of longest jump)
 	 * @return int value
 	 */
@@ -77,34 +140,29 @@ public class Rules {
     }
 
     /**
-     * Generates all valid single moves and jump sequences for the active player's 
-     * pieces based on the current board state.
-     * @return ArrayList containing the legal moves, with each move 
-     *          represented as an int array in the format [startRow, startCol, 
+     * Generates all valid single moves and jump sequences for the active player's
+     * pieces based on the current board state. If there's a jump all single moves are ignored (per the rules)
+     * @return ArrayList containing the legal moves, with each move
+     *          represented as an int array in the format [startRow, startCol,
      *          endRow1, endCol1, ...endRowN, endColN]
      */
     public ArrayList<int[]> bestMoves(){
         ArrayList<int[]> moves = new ArrayList<>();
-        int globalLevel = 0;            
-        for(int r=0;r<8;r++){           
-            for(int c=0;c<8;c++){
-                if(isOwnPiece(r, c)){
-                    isKing = recognize(r, c).equals("king");
-                    AbstractMap.SimpleEntry<Integer, int[][]> possibilities = getPiecePossibleMoves(r, c);
-                    int level = possibilities.getKey();
-                    if((globalLevel==0) && (level==0)){
-                        saveMoves(moves,possibilities.getValue(),false);
-                    }
-                    else if(level>0){
-                        if(globalLevel == 0){
-                            globalLevel = level; 
-                            saveMoves(moves,possibilities.getValue(),true);
-                        }
-                        else{
-                            globalLevel = Math.max(globalLevel,level);
-                            saveMoves(moves,possibilities.getValue(),false);
-                        }
-                    }
+        Arrays.fill(jumpSequenceCount, 0);
+        int globalLevel = 0;
+        for(int sq=0; sq<32; sq++){
+            if(isOwnPiece(sq)){
+                selectDirections(sq);
+                maxFoundJumpLength = 0;
+                int found = moves.size();
+                findJumpSequences(moves, sq, 0);
+                if(maxFoundJumpLength > 0){
+                    if(globalLevel == 0)    //first jump found, the single moves are no longer valid
+                        moves.subList(0, found).clear();
+                    globalLevel = Math.max(globalLevel, maxFoundJumpLength);
+                }
+                else if(globalLevel == 0){
+                    findPieceMoves(moves, sq);
                 }
             }
         }
@@ -113,374 +171,193 @@ public class Rules {
     }
 
 
-    //private methods ----------------------------------------
-
-
     /**
-     * Saves the current player's last valid moves to the moves Arraylist.
-     * @param moves ArrayList of all moves found so far
-     * @param newMoves int[][] newly found moves
-     * @param delete when the first jump is found, the whole list is cleared
+     * Counts the legal moves of the active player without building them.
+     * Gives the same number as bestMoves().size() and also updates getLevelOfPlays()
+     * and getJumpSequenceCount(int).
+     * @return number of legal moves (jump sequences if any capture is possible)
      */
-    private void saveMoves(ArrayList<int[]> moves,int[][] newMoves,boolean delete){
-        if(delete){
-            moves.clear();
-        }
-        Collections.addAll(moves, newMoves);
-    }
-
-    /**
-     * Returns all valid single moves or possible jump sequences for the specified piece 
-     * based on the current board state. If there's a jump all single moves are ignored (per the rules)
-     * @see Rules#pairStructure(int, int, String, int[][])
-     * @param row int
-     * @param col int
-     * @return {@code AbstractMap.SimpleEntry<Integer,int[][]>} where Integer is 
-     *    max jump level (0 if no jumps are possible) and int[][] contains coordinate arrays for each move
-     */
-
-    private AbstractMap.SimpleEntry<Integer, int[][]> getPiecePossibleMoves(int row, int col){
-        int[][] listOfMoves;
-        int[][] listOfJumps;
-        maxFoundJumpLength=0;
-
-        listOfMoves = possibleMoves(row, col);
-
-        if(isKing)
-            listOfJumps = possibleJumps(row,col,"all");
-        else if(ai)
-            listOfJumps = possibleJumps(row,col,"down");
-        else
-            listOfJumps = possibleJumps(row,col,"up");
-
-        if(listOfJumps != null){
-            return pairStructure(row,col,"jumps",listOfJumps);
-        }else{
-            return pairStructure(row,col,"moves",listOfMoves);
+    public int countMoves(){
+        Arrays.fill(jumpSequenceCount, 0);
+        int simpleMoves = 0;
+        int sequences = 0;
+        int globalLevel = 0;
+        for(int sq=0; sq<32; sq++){
+            if(isOwnPiece(sq)){
+                selectDirections(sq);
+                maxFoundJumpLength = 0;
+                sequences += findJumpSequences(null, sq, 0);
+                globalLevel = Math.max(globalLevel, maxFoundJumpLength);
+                if(globalLevel == 0)
+                    simpleMoves += findPieceMoves(null, sq);
+            }
         }
+        positionJumpLevel = globalLevel;
+        return globalLevel > 0 ? sequences : simpleMoves;
     }
 
     /**
-     * Groups the valid moves or sequences (jumps) found for a piece into a SimpleEntry structure
-     * representing the possible gameplay rounds.
-     * 
-     * @param row int
-     * @param col int
-     * @param mode string [jumps o moves]
-     * @param actions array of possible moves/jumps
-     * @return SimpleEntry containing max jump length and array of moves/jumps
+     * Checks if the active player has at least one capture. Stops at the first one found.
+     * @return boolean
      */
-    private AbstractMap.SimpleEntry<Integer, int[][]> pairStructure(int row, int col, String mode, int[][] actions){
-        
-        ArrayList<int[]> tempArrayList = new ArrayList<>();
-        if(mode.equals("moves")){
-            if(actions == null){
-                return new AbstractMap.SimpleEntry<>(-1,null);
-            }else{
-                for (int[] action : actions) {
-                    if (!(action[0] == -1 && action[1] == -1)) {
-                        tempArrayList.add(action);
-                    }
+    public boolean hasCapture(){
+        for(int sq=0; sq<32; sq++){
+            if(isOwnPiece(sq)){
+                selectDirections(sq);
+                for(int d=firstDirection; d<=lastDirection; d++){
+                    if(isTheJumpPossible(sq, d))
+                        return true;
                 }
             }
         }
-        else{      //mode is jumps
-            jumpTree = new ArrayList<>();
-            testForMultipleJumps(new int[0],actions);
-            tempArrayList.addAll(jumpTree);
-        }
-
-        int [][] returnStructure = new int[tempArrayList.size()][];
-        for(int i=0;i<tempArrayList.size();i++){
-            int[] temp = new int[tempArrayList.get(i).length+2];
-            copyArrayMovesStructure(tempArrayList.get(i),temp,row,col);
-            returnStructure[i] = temp;
-        }
-        return new AbstractMap.SimpleEntry<>(maxFoundJumpLength,returnStructure);
+        return false;
     }
 
     /**
-     * Copies the coordinates from the old array into a new array, prepending the start row/col
-     * @see Rules#enlargeArray(int[], int[], int[])
-     * @param old old array
-     * @param actual new array
-     * @param row start row
-     * @param col start col
+     * Length of the longest jump sequence of the active player, 0 if there are no captures.
+     * @see Rules#getLevelOfPlays()
+     * @return int value
      */
-    private void copyArrayMovesStructure(int[] old, int[] actual, int row, int col){
-        int i=0;
-        actual[i++] = row; actual[i++] = col;
-        for (int val : old){
-            actual[i++] = val;
-        }
+    public int maxJumpLength(){
+        countMoves();
+        return positionJumpLevel;
     }
 
     /**
-     * Recursively checks all possibilities for multiple jumps from the current position.
-     * Stores full jump sequences found in jumpTree.
-     * 
-     * @param path visited places
-     * @param from possible moves
+     * Returns how many of the jump sequences found by the last countMoves() have the given length.
+     * @param jumps number of pieces captured by the sequence
+     * @return int value
      */
-    private void testForMultipleJumps(int[] path,int[][] from){
-
-        if(from == null){   //no more possible jumps means the end of current path
-            int length = path.length/2 ; //jump length(1, 2, 3...)
-            maxFoundJumpLength = Math.max(length, maxFoundJumpLength);
-            jumpTree.add(path);
-        }
-        else{
-            if(path.length > 2)
-                checkPath(path, from);
-
-            String[] directions = {"up","up","down","down"};
-
-            for(int i=0;i<4;i++){
-                if(!(from[i][0]==-1 && from[i][1]==-1)){
-                    int[] temp = new int[path.length + 2];
-                    enlargeArray(path, temp, from[i]);
-                    if(isKing) {
-                        testForMultipleJumps(temp , possibleJumps(from[i][0],from[i][1],"all"));
-                    }
-                    else
-                        testForMultipleJumps(temp , possibleJumps(from[i][0],from[i][1],directions[i]));
-                }
-                if(i == 3 && checkInvalid(from))
-                    testForMultipleJumps(path, null);
-            }
-        }
+    public int getJumpSequenceCount(int jumps){
+        return jumps < jumpSequenceCount.length ? jumpSequenceCount[jumps] : 0;
     }
 
     /**
-     * Validates the path array does not contain duplicate jumps in the same direction.
-     * 
-     * @param path 
-     * @param check 
+     * Playable square at the given row and column.
+     * @param row int
+     * @param col int
+     * @return square index (0-31), or OFF_BOARD if out of the board or not a playable square
      */
-    private void checkPath(int[] path, int[][] check){
-        int l = path.length;
-        int last = l-3;
-        int lastB = l-4;
-
-        for(int i=0; i<4; i++){
-            if ((path[lastB] == check[i][0]) && (path[last] == check[i][1])){
-                check[i][0] = -1;
-                check[i][1] = -1;
-                return;
-            }
-        }
-
+    static int square(int row, int col){
+        if(row < 0 || row > 7 || col < 0 || col > 7 || (row + col) % 2 == 0)
+            return OFF_BOARD;
+        return row * 4 + col / 2;
     }
 
-    /**
-     * Checks if the provided moves array contains only invalid (-1,-1) entries
-     * @param from array
-     */
-    private boolean checkInvalid(int[][] from){
-        int invalNum = 0;
-        for (int[] pos : from) {
-            if ((pos[0] == -1) && (pos[1] == -1))
-                invalNum++;
 
-        }
-        return invalNum == 4;
-    }
+    //private methods ----------------------------------------
 
 
     /**
-     * Enlarges the path array by adding the add array elements to the to array.
-     * @param from array to enlarge (path)
-     * @param to array
-     * @param add array
+     * Recursively follows every jump sequence from the given square. Jumped pieces are
+     * marked as captured while the sequence goes on, so a king can't jump the same piece
+     * twice (or loop forever). Complete sequences are added to moves when it isn't null.
+     * @param moves list that receives the sequences, or null to only count them
+     * @param sq current square
+     * @param length jumps already made in this sequence
+     * @return number of sequences (0 if there's no jump from the starting square)
      */
-    private void enlargeArray(int[]from,int[]to,int[]add){
-        if(from != null && to!=null && add!=null){
-            int i;
-            for(i=0;i<from.length;i++){
-                to[i]=from[i];
+    private int findJumpSequences(ArrayList<int[]> moves, int sq, int length){
+        jumpPath[length] = sq;
+        int sequences = 0;
+        for(int d=firstDirection; d<=lastDirection; d++){
+            if(isTheJumpPossible(sq, d)){
+                int jumped = NEIGHBOR[sq][d];
+                char piece = pieceAt(jumped);
+                setPiece(jumped, CAPTURED);
+                sequences += findJumpSequences(moves, JUMP[sq][d], length + 1);
+                setPiece(jumped, piece);
             }
-            to[i++]=add[0];
-            to[i]=add[1];
         }
+        if(sequences == 0 && length > 0){   //no more possible jumps means the end of current path
+            maxFoundJumpLength = Math.max(length, maxFoundJumpLength);
+            jumpSequenceCount[length]++;
+            if(moves != null)
+                moves.add(pathToMove(length));
+            return 1;
+        }
+        return sequences;
     }
 
     /**
-     * Enum type for jump directions. If isKing, then all directions are valid, 
-     * otherwise only up or down depending of the piece color.
+     * Finds the valid regular (non-jump) moves of the piece at the given square.
+     * @param moves list that receives the moves, or null to only count them
+     * @param sq int
+     * @return number of moves
      */
-    private enum Direction{down,up,all}
-
-    /**
-     * Finds valid jump moves for a piece in the given direction from the provided position on the board.
-     * @param row int
-     * @param col int
-     * @param direct String direction
-     * @return int[][] the possible jumps in the format [[up,left], [up,right], [down,right], [down,left]]
-     *          invalid jumps are represented by [-1,-1]
-     */
-    private int[][] possibleJumps(int row, int col, String direct){
-        if ((row == col) && (col == -1))
-            return null;
-
-        Direction direction = Direction.valueOf(direct);
-        boolean downJumps,upJumps;
-        switch(direction){
-            case all:
-                downJumps = true;
-                upJumps = true;
-                break;
-            case up:
-                downJumps = false;
-                upJumps = true;
-                break;
-            case down:
-                downJumps = true;
-                upJumps = false;
-                break;
-            default:
-                return null;
-        }
-        int [][] listOfJumps ={{-1,-1},{-1,-1},{-1,-1},{-1,-1}};
-        boolean areJumps = false;
-        if( upJumps && isTheJumpPossible(row,col,-1,-1)){
-            listOfJumps[0][0]=row-2;
-            listOfJumps[0][1]=col-2;
-            areJumps = true;
-        }
-        if( upJumps && isTheJumpPossible(row,col,-1,+1)){
-            listOfJumps[1][0]=row-2;
-            listOfJumps[1][1]=col+2;
-            areJumps = true;
-        }
-        if( downJumps && isTheJumpPossible(row,col,+1,+1)){
-            listOfJumps[2][0]=row+2;
-            listOfJumps[2][1]=col+2;
-            areJumps = true;
-        }
-        if( downJumps && isTheJumpPossible(row, col,+1,-1)){
-            listOfJumps[3][0]=row+2;
-            listOfJumps[3][1]=col-2;
-            areJumps = true;
+    private int findPieceMoves(ArrayList<int[]> moves, int sq){
+        int found = 0;
+        for(int d=firstDirection; d<=lastDirection; d++){
+            int to = NEIGHBOR[sq][d];
+            if(to != OFF_BOARD && pieceAt(to) == 'e'){
+                found++;
+                if(moves != null)
+                    moves.add(new int[]{SQUARE_ROW[sq], SQUARE_COL[sq], SQUARE_ROW[to], SQUARE_COL[to]});
+            }
         }
-        if(areJumps)
-            return listOfJumps;
-        else
-            return null;
+        return found;
     }
 
     /**
-     * Finds valid regular (non-jump) moves for a piece from the provided position on the board.
-     * @see Rules#possibleJumps(int, int, String)
-     * @param row int
-     * @param col int
-     * @return int[][] containing possible moves or null if none found
+     * Converts the squares of jumpPath into a move [startRow, startCol, endRow1, endCol1, ...]
+     * @param length number of jumps in the path
+     * @return int[] move
      */
-    private int[][] possibleMoves(int row, int col){
-        int [][] listOfMoves ={{-1,-1},{-1,-1},{-1,-1},{-1,-1}};
-        boolean areMoves = false;
-        if(isTheMovePossible(row, row-1,col-1)){
-            listOfMoves[0][0]=row-1; // up-left
-            listOfMoves[0][1]=col-1;
-            areMoves = true;
-        }
-        if(isTheMovePossible(row, row-1,col+1)){
-            listOfMoves[1][0]=row-1; // up-right
-            listOfMoves[1][1]=col+1;
-            areMoves = true;
-        }
-        if(isTheMovePossible(row, row+1,col+1)){
-            listOfMoves[2][0]=row+1; // down-right
-            listOfMoves[2][1]=col+1;
-            areMoves = true;
+    private int[] pathToMove(int length){
+        int[] move = new int[2 * (length + 1)];
+        for(int i=0; i<=length; i++){
+            move[2 * i] = SQUARE_ROW[jumpPath[i]];
+            move[2 * i + 1] = SQUARE_COL[jumpPath[i]];
         }
-        if(isTheMovePossible(row, row+1,col-1)){
-            listOfMoves[3][0]=row+1; // down-left
-            listOfMoves[3][1]=col-1;
-            areMoves = true;
-        }
-        if(areMoves)
-            return listOfMoves;
-        else
-            return null;
+        return move;
     }
 
     /**
-     * Checks if a regular (non-jump) move from the current position to the given row/col is valid.
-     * @param previousRow int
-     * @param row int
-     * @param col int
+     * Checks if a jump from the given square in the given direction is valid according to the rules:
+     * an opponent's piece next to it and an empty square right behind.
+     * @param sq int
+     * @param d direction
      */
-    private Boolean isTheMovePossible(int previousRow, int row, int col){
-        return ((isInRange(row) && isInRange(col) && recognize(row,col).equals("empty")) &&
-                 isMovingFwd(previousRow, row));
+    private boolean isTheJumpPossible(int sq, int d){
+        int landing = JUMP[sq][d];
+        return landing != OFF_BOARD && isOpponentsPiece(NEIGHBOR[sq][d]) && pieceAt(landing) == 'e';
     }
 
     /**
-     * Checks if a jump move from the current position in the given direction is valid according to the rules.
-     * @param row int
-     * @param col int
-     * @param verticalDirection (+1 or -1)
-     * @param horizontalDirection (+1 or -1)
+     * Sets the directions the piece at the given square can move to.
+     * @param sq int
      */
-    private Boolean isTheJumpPossible(int row,int col,int verticalDirection,int horizontalDirection){
-        int tempRow =row+verticalDirection;
-        int tempCol =col+horizontalDirection;
-
-        if (!(isInRange(tempRow) && isInRange(tempCol))) {
-            return false;
+    private void selectDirections(int sq){
+        if(pieceAt(sq) == ownKing){
+            firstDirection = 0;
+            lastDirection = 3;
         }
-        boolean firstCheck = isOpponentsPiece(tempRow, tempCol);
-
-        tempRow+=verticalDirection;
-        tempCol+=horizontalDirection;
-
-        boolean forward = isMovingFwd(row, tempRow);
-
-        if (!(isInRange(tempRow) && isInRange(tempCol))) {
-            return false;
+        else if(ai){    // black men move down
+            firstDirection = 2;
+            lastDirection = 3;
+        }
+        else{
+            firstDirection = 0;
+            lastDirection = 1;
         }
-        boolean secondCheck = (localBoard[tempRow][tempCol] == 'e');
-        return firstCheck && forward && secondCheck;
-    }
-
-
-    /**
-     * Checks if a move represents forward movement for the given player/piece.
-     * Or if it's a king and can move backward
-     * @param prevRow 
-     * @param row 
-     * @return boolean
-     */
-    private Boolean isMovingFwd(int prevRow, int row){
-        return (isKing || (!ai && prevRow>row) ||
-                (ai && prevRow<row));
     }
 
-    /**
-     * Checks if row or column is in range for the board.
-     * @param a int
-     */
-    private Boolean isInRange(int a){
-        return a < 8 && a >= 0;
+    private char pieceAt(int sq){
+        return localBoard[SQUARE_ROW[sq]][SQUARE_COL[sq]];
     }
 
-    private String recognize(int row,int col){
-        char piece = localBoard[row][col];
-        return switch (piece) {
-            case 'b', 'r' -> "basic";
-            case 'B', 'R' -> "king";
-            default -> "empty";
-        };
+    private void setPiece(int sq, char piece){
+        localBoard[SQUARE_ROW[sq]][SQUARE_COL[sq]] = piece;
     }
 
-    private boolean isOpponentsPiece(int row,int col){
-        return ( (ai && (localBoard[row][col] == 'r' || localBoard[row][col] == 'R')) ||
-                 (!ai && (localBoard[row][col] == 'b' || localBoard[row][col] == 'B')));
+    private boolean isOpponentsPiece(int sq){
+        char piece = pieceAt(sq);
+        return piece == opponentMan || piece == opponentKing;
     }
 
-    private boolean isOwnPiece(int row, int col){
-        return ( (ai && (localBoard[row][col] == 'b' || localBoard[row][col] == 'B')) ||
-                 (!ai && (localBoard[row][col] == 'r' || localBoard[row][col] == 'R')));
+    private boolean isOwnPiece(int sq){
+        char piece = pieceAt(sq);
+        return piece == ownMan || piece == ownKing;
     }
 
 }
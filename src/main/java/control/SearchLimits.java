@@ -0,0 +1,40 @@
+package control;
+
+
+/**
+ * Limits of an {@link AI#search(char[][], SearchLimits)} call: maximum depth and time.
+ */
+public class SearchLimits {
+    private final int maxDepth;
+    private final long timeLimitMillis;
+
+    /**
+     * Constructor
+     * @param maxDepth        deepest iteration to search, at least 1
+     * @param timeLimitMillis time budget of the search, 0 for no deadline
+     */
+    public SearchLimits(int maxDepth, long timeLimitMillis) {
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("maxDepth must be at least 1: " + maxDepth);
+        if (timeLimitMillis < 0)
+            throw new IllegalArgumentException("timeLimitMillis can't be negative: " + timeLimitMillis);
+        this.maxDepth = maxDepth;
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * Getter for the maximum depth
+     * @return maxDepth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Getter for the time budget
+     * @return time limit in milliseconds, 0 if there's no deadline
+     */
+    public long getTimeLimitMillis() {
+        return timeLimitMillis;
+    }
+}
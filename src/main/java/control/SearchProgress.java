@@ -0,0 +1,18 @@
+package control;
+
+
+/**
+ * Receives the result of each completed iteration of a search.
+ * Called from the thread running the search.
+ */
+@FunctionalInterface
+public interface SearchProgress {
+
+    /**
+     * Called after every completed depth.
+     * @param depth    depth just completed
+     * @param bestMove best move so far
+     * @param score    score of the best move from the ai's point of view
+     */
+    void depthCompleted(int depth, int[] bestMove, int score);
+}
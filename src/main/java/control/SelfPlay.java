@@ -0,0 +1,147 @@
+package control;
+
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * Plays games between two AI configurations with the same time per move and prints the
+ * result and the average depth each side completed. Every opening is played twice,
+ * swapping colors. Used to check that selective search (late move reductions) gets
+ * deeper in the same time without losing strength.
+ */
+public class SelfPlay {
+
+    // Plies without a winner after which the game is called a draw.
+    static final int MAX_PLIES = 150;
+    // Random plies played before the engines take over, so games don't repeat.
+    static final int OPENING_PLIES = 4;
+
+    private final Rules rules = new Rules();
+    private final AI[] engines;
+    private final long millisPerMove;
+    private final long[] depthSum = new long[2];
+    private final long[] searches = new long[2];
+
+    /**
+     * Constructor
+     * @param first         engine 0
+     * @param second        engine 1
+     * @param millisPerMove time per move
+     */
+    SelfPlay(AI first, AI second, long millisPerMove) {
+        engines = new AI[]{first, second};
+        this.millisPerMove = millisPerMove;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        AI selective = new AI();
+        AI full = new AI();
+        full.useLateMoveReductions = false;
+        SelfPlay match = new SelfPlay(selective, full, millis);
+
+        Random random = new Random(seed);
+        int[] points = new int[3];  // wins of engine 0, draws, wins of engine 1
+        for (int p = 0; p < pairs; p++) {
+            long openingSeed = random.nextLong();
+            for (int blackEngine = 0; blackEngine < 2; blackEngine++) {
+                int winner = match.playGame(blackEngine, new Random(openingSeed));
+                points[winner < 0 ? 1 : winner * 2]++;
+            }
+        }
+        System.out.printf("LMR on vs off, %d ms per move: +%d =%d -%d%n", millis, points[0], points[1], points[2]);
+        System.out.printf("average depth: LMR on %.2f, LMR off %.2f%n", match.averageDepth(0), match.averageDepth(1));
+    }
+
+    /**
+     * Plays one game from the initial position.
+     * @param blackEngine index of the engine playing black (it moves first)
+     * @param opening     random source for the opening plies
+     * @return index of the winning engine, -1 for a draw
+     */
+    int playGame(int blackEngine, Random opening) throws InterruptedException, ExecutionException {
+        char[][] board = Game.initialBoard();
+        boolean blackToMove = true;
+        for (int ply = 0; ply < MAX_PLIES; ply++) {
+            int engine = blackToMove ? blackEngine : 1 - blackEngine;
+            rules.setPropertiesForPlayer(board, blackToMove);
+            ArrayList<int[]> moves = rules.bestMoves();
+            if (moves.isEmpty())
+                return 1 - engine;
+            int[] play;
+            if (ply < OPENING_PLIES)
+                play = moves.get(opening.nextInt(moves.size()));
+            else if (blackToMove)
+                play = search(engine, board);
+            else
+                play = flipMove(search(engine, flipBoard(board)));
+            engines[0].makeTheMove(play, board);
+            blackToMove = !blackToMove;
+        }
+        return -1;
+    }
+
+    /**
+     * Searches the position for the engine, which always plays the ai (black) side.
+     * @param engine index of the engine
+     * @param board  position, black to move
+     * @return best move
+     */
+    private int[] search(int engine, char[][] board) throws InterruptedException, ExecutionException {
+        int[] depth = new int[1];
+        int[] play = engines[engine].search(board, new SearchLimits(64, millisPerMove),
+                (d, move, score) -> depth[0] = d).get();
+        depthSum[engine] += depth[0];
+        searches[engine]++;
+        return play;
+    }
+
+    /**
+     * Average depth completed by the engine's searches
+     * @param engine index of the engine
+     * @return average depth
+     */
+    double averageDepth(int engine) {
+        return searches[engine] == 0 ? 0 : (double) depthSum[engine] / searches[engine];
+    }
+
+    /**
+     * Turns the board around and swaps the colors, so red's position can be searched as the ai.
+     * @param board board
+     * @return flipped copy of the board
+     */
+    static char[][] flipBoard(char[][] board) {
+        char[][] flipped = new char[8][8];
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                char piece = board[r][c];
+                flipped[7 - r][7 - c] = switch (piece) {
+                    case 'r' -> 'b';
+                    case 'R' -> 'B';
+                    case 'b' -> 'r';
+                    case 'B' -> 'R';
+                    default -> piece;
+                };
+            }
+        }
+        return flipped;
+    }
+
+    /**
+     * Maps a move found on a flipped board back to the original board.
+     * @param play move on the flipped board
+     * @return move on the original board
+     */
+    static int[] flipMove(int[] play) {
+        int[] flipped = new int[play.length];
+        for (int i = 0; i < play.length; i++)
+            flipped[i] = 7 - play[i];
+        return flipped;
+    }
+}
@@ -0,0 +1,503 @@
+package control;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+
+/**
+ * Hosts many games between the ai (black) and remote players (red) with a fixed amount of memory
+ * per game. Each game is a GameSession, a packed position plus the moves played. All the
+ * sessions share a fixed pool of engines, which share one evaluation cache; ai moves wait in
+ * a queue for a free engine. Sessions idle for a while can be evicted to files in a local
+ * directory, and they are loaded back when they are used again.
+ * <pre>
+ * SessionManager [sessions] [engines] [depth]   load test: prints the metrics and the memory per session
+ * </pre>
+ */
+public class SessionManager implements AutoCloseable {
+
+    private static final String SUFFIX = ".session";
+
+    private static final ThreadLocal<Rules> RULES = ThreadLocal.withInitial(Rules::new);
+
+    private final ConcurrentHashMap<Long, GameSession> sessions = new ConcurrentHashMap<>();
+    private final BlockingQueue<AI> engines;
+    private final ThreadPoolExecutor executor;
+    private final SearchLimits limits;
+    private final Path store;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger storedSessions = new AtomicInteger();
+
+    /**
+     * Constructor. Sessions left in the store by a previous manager can be used by their ids.
+     * @param engines          number of engines, the ai moves searched at the same time
+     * @param evalCacheEntries slots of the evaluation cache shared by the engines
+     * @param limits           depth and time of each ai move
+     * @param store            directory of the evicted sessions, created if it doesn't exist
+     */
+    public SessionManager(int engines, int evalCacheEntries, SearchLimits limits, Path store) throws IOException {
+        if (engines < 1)
+            throw new IllegalArgumentException("engines must be at least 1: " + engines);
+        this.limits = limits;
+        this.store = Files.createDirectories(store);
+        EvalCache evalCache = new EvalCache(evalCacheEntries);
+        this.engines = new ArrayBlockingQueue<>(engines);
+        for (int i = 0; i < engines; i++)
+            this.engines.add(new AI(Runnable::run, evalCache));
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(engines, engines, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "checkers-engine-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long maxId = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(store, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    maxId = Math.max(maxId, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                    storedSessions.incrementAndGet();
+                } catch (NumberFormatException e) {
+                    // not a session
+                }
+            }
+        }
+        nextId.set(maxId);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int engines = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        Path store = Files.createTempDirectory("checkers-sessions");
+        Random random = new Random(1);
+        try (SessionManager manager = new SessionManager(engines, AI.DEFAULT_EVAL_CACHE_ENTRIES, new SearchLimits(depth, 0), store)) {
+            long before = usedMemory();
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++)
+                ids[i] = manager.createSession(false);
+            long start = System.nanoTime();
+            int maxQueue = 0;
+            for (int turn = 0; turn < 3; turn++) {
+                List<CompletableFuture<int[]>> replies = new ArrayList<>(count);
+                for (long id : ids) {
+                    if (manager.isOver(id))
+                        continue;
+                    char[][] board = manager.getBoard(id);
+                    Rules rules = RULES.get();
+                    rules.setPropertiesForPlayer(board, false);
+                    ArrayList<int[]> moves = rules.bestMoves();
+                    manager.play(id, moves.get(random.nextInt(moves.size())));
+                    replies.add(manager.requestAiMove(id));
+                    maxQueue = Math.max(maxQueue, manager.getQueueDepth());
+                }
+                replies.forEach(CompletableFuture::join);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long used = usedMemory() - before;
+            System.out.printf("%d sessions, %d engines: %d ai moves in %.2f s, max queue depth %d%n",
+                    count, engines, 3L * count, seconds, maxQueue);
+            System.out.printf("active %d, heap %d bytes per session after 6 plies%n",
+                    manager.getActiveSessions(), used / count);
+            start = System.nanoTime();
+            int evicted = manager.evictIdle(0);
+            System.out.printf("evicted %d in %.2f s: active %d, stored %d%n", evicted,
+                    (System.nanoTime() - start) / 1e9, manager.getActiveSessions(), manager.getStoredSessions());
+            System.out.println("history of session " + ids[0] + " loaded back: "
+                    + manager.getHistory(ids[0]).stream().map(Arrays::toString).toList());
+            for (long id : ids)
+                manager.closeSession(id);
+        } finally {
+            Files.deleteIfExists(store);
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Starts a game at the initial position.
+     * @param aiMovesFirst true if the ai (black) makes the first move
+     * @return session id
+     */
+    public long createSession(boolean aiMovesFirst) {
+        long id = nextId.incrementAndGet();
+        sessions.put(id, new GameSession(id, aiMovesFirst));
+        return id;
+    }
+
+    /**
+     * Plays a move of the remote player (red).
+     * @param id   session id
+     * @param play move [startRow, startCol, endRow1, endCol1, ...]
+     * @throws IllegalArgumentException if the session doesn't exist or the move isn't legal
+     * @throws IllegalStateException    if the ai moves or the game is drawn
+     */
+    public void play(long id, int[] play) {
+        withSession(id, session -> {
+            if (session.searching || session.isAiToMove())
+                throw new IllegalStateException("Session " + id + ": it's the ai's turn");
+            if (isDraw(session))
+                throw new IllegalStateException("Session " + id + ": the game is drawn");
+            Rules rules = RULES.get();
+            rules.setPropertiesForPlayer(PackedBoard.unpack(session.position), false);
+            if (rules.bestMoves().stream().noneMatch(move -> Arrays.equals(move, play)))
+                throw new IllegalArgumentException("Session " + id + ": illegal move " + Arrays.toString(play));
+            session.play(play);
+            return null;
+        });
+    }
+
+    /**
+     * Queues the search of the ai move. When an engine is free it searches the move
+     * and plays it on the session. The engine knows the moves of the game, so positions
+     * already played score as draws. Cancelling the future before the search starts frees
+     * the session without a move, cancelling it later discards the move found.
+     * @param id session id
+     * @return future completed with the ai move, null if the ai can't move (it lost)
+     * @throws IllegalArgumentException if the session doesn't exist
+     * @throws IllegalStateException    if it's not the ai's turn, its move is already queued or the game is drawn
+     */
+    public CompletableFuture<int[]> requestAiMove(long id) {
+        withSession(id, session -> {
+            if (session.searching || !session.isAiToMove())
+                throw new IllegalStateException("Session " + id + ": it's not the ai's turn");
+            if (isDraw(session))
+                throw new IllegalStateException("Session " + id + ": the game is drawn");
+            session.searching = true;
+            return null;
+        });
+        AiMoveTask task = new AiMoveTask(id);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            endSearch(id, null);
+            throw e;
+        }
+        return task.future;
+    }
+
+    /**
+     * Queued ai move: just the session id, the session is only unpacked once an engine is free.
+     */
+    private final class AiMoveTask implements Runnable {
+        final long id;
+        // The move was played on the session, so the future can't be cancelled any more. Guarded by this task.
+        private boolean played;
+        final CompletableFuture<int[]> future = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                synchronized (AiMoveTask.this) {
+                    return !played && super.cancel(mayInterruptIfRunning);
+                }
+            }
+        };
+
+        AiMoveTask(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            int[] play = null;
+            try {
+                if (!future.isDone())
+                    play = searchAiMove(id);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                // cancelled or played, decided under the same monitor as cancel()
+                synchronized (this) {
+                    played = play != null && !future.isDone();
+                    endSearch(id, played ? play : null);
+                }
+            }
+            future.complete(play);
+        }
+
+        /**
+         * Fails the future of a move discarded before it was searched and frees its session.
+         */
+        void discard() {
+            future.completeExceptionally(new CancellationException("Session " + id + ": the manager was closed"));
+            endSearch(id, null);
+        }
+    }
+
+    /**
+     * Searches the ai move with an engine of the pool.
+     * @param id session id
+     * @return move, null if there's none
+     */
+    private int[] searchAiMove(long id) throws InterruptedException {
+        AI ai = engines.take();
+        try {
+            char[][] board = getBoard(id);
+            List<int[]> moves = getHistory(id);
+            // the ai moves now, so it moved first if an even number of moves was played
+            ai.setGameHistory(Game.initialBoard(), moves.size() % 2 == 0, moves);
+            return ai.search(board, limits).join();
+        } finally {
+            engines.add(ai);
+        }
+    }
+
+    /**
+     * Plays the ai move, if any, and frees the session for the next move.
+     * Nothing to do if the session was closed meanwhile.
+     * @param id   session id
+     * @param play move, null to leave the position as it is
+     */
+    private void endSearch(long id, int[] play) {
+        try {
+            withSession(id, session -> {
+                if (play != null)
+                    session.play(play);
+                session.searching = false;
+                return null;
+            });
+        } catch (IllegalArgumentException e) {
+            // closed session
+        }
+    }
+
+    /**
+     * Unpacks the position of a session.
+     * @param id session id
+     * @return new board
+     */
+    public char[][] getBoard(long id) {
+        return withSession(id, session -> PackedBoard.unpack(session.position));
+    }
+
+    /**
+     * Moves played in a session.
+     * @param id session id
+     * @return moves in the order they were played, starting with the first move of the game
+     */
+    public List<int[]> getHistory(long id) {
+        return withSession(id, GameSession::moves);
+    }
+
+    /**
+     * Checks if the ai moves in a session.
+     * @param id session id
+     * @return boolean
+     */
+    public boolean isAiToMove(long id) {
+        return withSession(id, GameSession::isAiToMove);
+    }
+
+    /**
+     * Checks if the game of a session is over: the player who moves has no legal move and lost,
+     * or the game is drawn.
+     * @param id session id
+     * @return boolean
+     */
+    public boolean isOver(long id) {
+        return withSession(id, session -> {
+            if (isDraw(session))
+                return true;
+            Rules rules = RULES.get();
+            rules.setPropertiesForPlayer(PackedBoard.unpack(session.position), session.isAiToMove());
+            return rules.countMoves() == 0;
+        });
+    }
+
+    /**
+     * Checks if the game of a session is drawn: the same number of plies without a capture
+     * as the engines score as a draw (AI.DEFAULT_DRAW_PLIES_WITHOUT_CAPTURE).
+     * @param id session id
+     * @return boolean
+     */
+    public boolean isDraw(long id) {
+        return withSession(id, SessionManager::isDraw);
+    }
+
+    private static boolean isDraw(GameSession session) {
+        return session.quietPlies() >= AI.DEFAULT_DRAW_PLIES_WITHOUT_CAPTURE;
+    }
+
+    /**
+     * Ends a session, in memory or in the store. A queued ai move still completes,
+     * with an exception.
+     * @param id session id
+     */
+    public void closeSession(long id) {
+        GameSession session = sessions.remove(id);
+        if (session != null) {
+            synchronized (session) {
+                session.evicted = true;
+            }
+        }
+        try {
+            if (Files.deleteIfExists(sessionFile(id)))
+                storedSessions.decrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the sessions not used for the given time to the store and removes them from memory.
+     * Sessions waiting for an ai move are kept.
+     * @param idleMillis minimum time since the last access
+     * @return number of sessions evicted
+     */
+    public int evictIdle(long idleMillis) {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (GameSession session : sessions.values()) {
+            synchronized (session) {
+                if (session.evicted || session.searching || now - session.lastAccess < idleMillis * 1_000_000)
+                    continue;
+                save(session);
+                session.evicted = true;
+                sessions.remove(session.id, session);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Number of sessions in memory
+     * @return int value
+     */
+    public int getActiveSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Number of sessions evicted to the store
+     * @return int value
+     */
+    public int getStoredSessions() {
+        return storedSessions.get();
+    }
+
+    /**
+     * Number of ai moves waiting for a free engine
+     * @return int value
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Number of ai moves being searched
+     * @return int value
+     */
+    public int getRunningSearches() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Stops the engines. Queued ai moves are discarded: their futures fail with a
+     * CancellationException and their sessions can get a new move request. Moves being
+     * searched still complete. The sessions stay where they are.
+     */
+    @Override
+    public void close() {
+        for (Runnable task : executor.shutdownNow())
+            ((AiMoveTask) task).discard();
+    }
+
+    /**
+     * Runs an action on a session holding its monitor, after loading it from the store if it was evicted.
+     * @param id     session id
+     * @param action action
+     * @return result of the action
+     */
+    private <T> T withSession(long id, Function<GameSession, T> action) {
+        while (true) {
+            GameSession session = sessions.computeIfAbsent(id, this::load);
+            if (session == null)
+                throw new IllegalArgumentException("Unknown session " + id);
+            synchronized (session) {
+                // evicted between the lookup and the lock: look it up again
+                if (!session.evicted) {
+                    session.lastAccess = System.nanoTime();
+                    return action.apply(session);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads an evicted session and deletes its file.
+     * @param id session id
+     * @return session, null if it's not in the store
+     */
+    private GameSession load(long id) {
+        Path file = sessionFile(id);
+        try {
+            GameSession session;
+            try (InputStream in = Files.newInputStream(file)) {
+                session = GameSession.read(id, new DataInputStream(new BufferedInputStream(in)));
+            }
+            Files.delete(file);
+            storedSessions.decrementAndGet();
+            return session;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't load session " + id, e);
+        }
+    }
+
+    /**
+     * Writes a session to its file, through a temporary file so a crash can't leave it half written.
+     * @param session session
+     */
+    private void save(GameSession session) {
+        Path file = sessionFile(session.id);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+                session.write(data);
+                data.flush();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storedSessions.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't store session " + session.id, e);
+        }
+    }
+
+    private Path sessionFile(long id) {
+        return store.resolve(id + SUFFIX);
+    }
+}
@@ -0,0 +1,263 @@
+package control;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+
+/**
+ * Tunes the point values of the AI evaluation on labelled positions (Texel's method):
+ * fits the weights so that a logistic function of the evaluation predicts the game results,
+ * and writes them to the weights file the AI reads at startup.
+ * <p>
+ * Labelled positions are stored as a PackedBoard record followed by a result byte
+ * (RED_WINS, DRAW or BLACK_WINS). Only the features of each position are kept in memory,
+ * FEATURES bytes plus the result, so tens of millions of positions fit in a normal heap.
+ * Feature extraction and every evaluation of the error run in parallel.
+ * <pre>
+ * Tuner generate games seed file [depth]   labels the positions of self-play games
+ * Tuner tune file [weights file]           fits the weights (weights.properties by default)
+ * </pre>
+ */
+public class Tuner {
+
+    static final int RED_WINS = 0;
+    static final int DRAW = 1;
+    static final int BLACK_WINS = 2;
+    static final int RECORD_BYTES = PackedBoard.RECORD_BYTES + 1;
+
+    // Positions read from the file before their features are extracted in parallel.
+    private static final int LOAD_CHUNK = 1 << 20;
+    // Positions per parallel task when computing the error.
+    private static final int BLOCK = 1 << 16;
+    // Rounds of the local search over all the weights.
+    private static final int MAX_ROUNDS = 500;
+
+    private static final ThreadLocal<Rules> RULES = ThreadLocal.withInitial(Rules::new);
+    private static final ThreadLocal<char[][]> BOARD = ThreadLocal.withInitial(() -> new char[8][8]);
+    private static final ThreadLocal<int[]> FEATURE_BUFFER = ThreadLocal.withInitial(() -> new int[AI.FEATURES]);
+
+    private final int size;
+    private final byte[] features;
+    private final byte[] results;
+
+    private Tuner(int size) {
+        this.size = size;
+        features = new byte[size * AI.FEATURES];
+        results = new byte[size];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("generate")) {
+            int depth = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+            long count = generate(Path.of(args[3]), Integer.parseInt(args[1]), Long.parseLong(args[2]), depth);
+            System.out.println(count + " labelled positions written to " + args[3]);
+        } else if (args.length >= 2 && args[0].equals("tune")) {
+            Path output = Path.of(args.length > 2 ? args[2] : AI.DEFAULT_WEIGHTS_FILE);
+            long start = System.nanoTime();
+            Tuner tuner = load(Path.of(args[1]));
+            System.out.printf("%d positions loaded in %.2f s%n", tuner.size, (System.nanoTime() - start) / 1e9);
+            int[] weights = new AI(Runnable::run, new EvalCache(1)).getWeights();
+            double k = tuner.fitScale(weights);
+            System.out.printf("scale %.5f, error %.6f with %s%n", k, tuner.error(weights, k), Arrays.toString(weights));
+            double error = tuner.tune(weights, k);
+            System.out.printf("error %.6f with %s%n", error, Arrays.toString(weights));
+            AI.writeWeights(output, weights, "Tuned on " + tuner.size + " positions of " + args[1] + ", error " + error);
+            System.out.println("weights written to " + output);
+        } else {
+            System.out.println("usage: Tuner generate games seed file [depth] | Tuner tune file [weights file]");
+        }
+    }
+
+    /**
+     * Loads a file of labelled positions and extracts the features of every position.
+     * @param file labelled positions
+     * @return tuner holding the features
+     */
+    static Tuner load(Path file) throws IOException {
+        long records = Files.size(file) / RECORD_BYTES;
+        if (records * AI.FEATURES > Integer.MAX_VALUE - 8)
+            throw new IOException(file + " has too many positions: " + records);
+        Tuner tuner = new Tuner((int) records);
+        int[] black = new int[LOAD_CHUNK];
+        int[] red = new int[LOAD_CHUNK];
+        int[] kings = new int[LOAD_CHUNK];
+        byte[] side = new byte[LOAD_CHUNK];
+        int[] packed = new int[PackedBoard.LENGTH];
+        try (InputStream in = Files.newInputStream(file)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+            int loaded = 0;
+            while (loaded < tuner.size) {
+                int chunk = Math.min(LOAD_CHUNK, tuner.size - loaded);
+                for (int i = 0; i < chunk; i++) {
+                    PackedBoard.read(data, packed);
+                    black[i] = packed[PackedBoard.BLACK];
+                    red[i] = packed[PackedBoard.RED];
+                    kings[i] = packed[PackedBoard.KINGS];
+                    side[i] = (byte) packed[PackedBoard.SIDE];
+                    tuner.results[loaded + i] = data.readByte();
+                }
+                int offset = loaded;
+                IntStream.range(0, chunk).parallel().forEach(i ->
+                        tuner.extract(offset + i, black[i], red[i], kings[i], side[i] == 1));
+                loaded += chunk;
+            }
+        }
+        return tuner;
+    }
+
+    /**
+     * Stores the features of one position.
+     */
+    private void extract(int index, int black, int red, int kings, boolean ai) {
+        int[] packed = {black, red, kings, ai ? 1 : 0};
+        char[][] board = BOARD.get();
+        int[] values = FEATURE_BUFFER.get();
+        PackedBoard.unpack(packed, board);
+        AI.evaluationFeatures(board, ai, RULES.get(), values);
+        for (int f = 0; f < AI.FEATURES; f++)
+            features[index * AI.FEATURES + f] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, values[f]));
+    }
+
+    /**
+     * Mean squared difference between the results and the predicted results, sigmoid(k * evaluation).
+     * @param weights point values indexed by AI.FEATURE_WIN...
+     * @param k       scale of the evaluation
+     * @return error
+     */
+    double error(int[] weights, double k) {
+        int blocks = (size + BLOCK - 1) / BLOCK;
+        return IntStream.range(0, blocks).parallel().mapToDouble(b -> blockError(b, weights, k)).sum() / size;
+    }
+
+    private double blockError(int block, int[] weights, double k) {
+        int end = Math.min(size, (block + 1) * BLOCK);
+        double sum = 0;
+        for (int i = block * BLOCK; i < end; i++) {
+            int base = i * AI.FEATURES;
+            int evaluation = 0;
+            for (int f = 0; f < AI.FEATURES; f++)
+                evaluation += weights[f] * features[base + f];
+            double predicted = 1 / (1 + Math.exp(-k * evaluation));
+            double diff = results[i] / 2.0 - predicted;
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the scale that minimizes the error of the current weights (ternary search),
+     * so the tuning only moves the weights relative to each other.
+     * @param weights point values
+     * @return scale
+     */
+    double fitScale(int[] weights) {
+        double low = 0;
+        double high = 1;
+        for (int i = 0; i < 60; i++) {
+            double a = low + (high - low) / 3;
+            double b = high - (high - low) / 3;
+            if (error(weights, a) < error(weights, b))
+                high = b;
+            else
+                low = a;
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * Local search: moves each weight by one point while that lowers the error.
+     * The win value is left as it is, it only scores finished games and just grows with the fit.
+     * @param weights point values, updated in place
+     * @param k       scale
+     * @return final error
+     */
+    double tune(int[] weights, double k) {
+        double best = error(weights, k);
+        boolean improved = true;
+        for (int round = 0; improved && round < MAX_ROUNDS; round++) {
+            improved = false;
+            for (int f = 0; f < AI.FEATURES; f++) {
+                if (f == AI.FEATURE_WIN)
+                    continue;
+                for (int delta : new int[]{1, -1}) {
+                    weights[f] += delta;
+                    double error = error(weights, k);
+                    if (error < best) {
+                        best = error;
+                        improved = true;
+                        break;
+                    }
+                    weights[f] -= delta;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays self-play games from random openings and writes every position after the opening,
+     * labelled with the result of its game. Games without a winner after SelfPlay.MAX_PLIES are draws.
+     * @param file  output file
+     * @param games number of games
+     * @param seed  seed of the openings
+     * @param depth search depth of the engine
+     * @return number of positions written
+     */
+    static long generate(Path file, int games, long seed, int depth) throws IOException {
+        AI ai = new AI(Runnable::run, new EvalCache(1 << 16));
+        ai.TOP_RECURSION_LEVEL = depth;
+        Rules rules = new Rules();
+        Random random = new Random(seed);
+        long written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            for (int g = 0; g < games; g++) {
+                ArrayList<int[]> positions = new ArrayList<>();
+                char[][] board = Game.initialBoard();
+                boolean blackToMove = true;
+                int result = DRAW;
+                for (int ply = 0; ply < SelfPlay.MAX_PLIES; ply++) {
+                    rules.setPropertiesForPlayer(board, blackToMove);
+                    ArrayList<int[]> moves = rules.bestMoves();
+                    if (ply >= SelfPlay.OPENING_PLIES) {
+                        int[] packed = new int[PackedBoard.LENGTH];
+                        PackedBoard.pack(board, blackToMove, packed);
+                        positions.add(packed);
+                    }
+                    if (moves.isEmpty()) {
+                        result = blackToMove ? RED_WINS : BLACK_WINS;
+                        break;
+                    }
+                    int[] play;
+                    if (ply < SelfPlay.OPENING_PLIES) {
+                        play = moves.get(random.nextInt(moves.size()));
+                    } else if (blackToMove) {
+                        ai.setBoard(board);
+                        play = ai.playAi();
+                    } else {
+                        ai.setBoard(SelfPlay.flipBoard(board));
+                        play = SelfPlay.flipMove(ai.playAi());
+                    }
+                    ai.makeTheMove(play, board);
+                    blackToMove = !blackToMove;
+                }
+                for (int[] packed : positions) {
+                    PackedBoard.write(out, packed);
+                    out.writeByte(result);
+                }
+                written += positions.size();
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,92 @@
+package control;
+
+
+import java.util.Random;
+
+
+/**
+ * Zobrist hashing of board positions: a random key per piece type and playable square,
+ * xored together, plus a key for the side to move. Keys are fixed at class load.
+ */
+final class Zobrist {
+
+    private static final char[] PIECES = {'b', 'B', 'r', 'R'};
+    private static final long[][] PIECE_KEYS = new long[PIECES.length][32];
+
+    /**
+     * Xored in when the ai (black) is the side to move
+     */
+    static final long AI_TO_MOVE;
+
+    static {
+        Random random = new Random(0x436865636B657273L);
+        for (long[] keys : PIECE_KEYS) {
+            for (int sq = 0; sq < 32; sq++)
+                keys[sq] = random.nextLong();
+        }
+        AI_TO_MOVE = random.nextLong();
+    }
+
+    private Zobrist() {}
+
+    /**
+     * Hashes the whole board.
+     * @param board board
+     * @param ai    true if the ai moves
+     * @return hash
+     */
+    static long hash(char[][] board, boolean ai) {
+        long hash = ai ? AI_TO_MOVE : 0;
+        for (int sq = 0; sq < 32; sq++)
+            hash ^= pieceKey(board[Rules.SQUARE_ROW[sq]][Rules.SQUARE_COL[sq]], sq);
+        return hash;
+    }
+
+    /**
+     * Hash of the position after the move, from the hash of the position before it.
+     * Must be called before the move is made on the board.
+     * @param hash  hash before the move
+     * @param board board before the move
+     * @param play  move [startRow, startCol, endRow1, endCol1, ...]
+     * @return hash after the move, with the other side to move
+     */
+    static long afterMove(long hash, char[][] board, int[] play) {
+        int prevR = play[0];
+        int prevC = play[1];
+        char piece = board[prevR][prevC];
+        hash ^= pieceKey(piece, Rules.square(prevR, prevC));
+        for (int i = 2; i < play.length; i += 2) {
+            int r = play[i];
+            int c = play[i + 1];
+            if (r - prevR > 1 || prevR - r > 1) {  // jump: the piece in between is captured
+                int jumpedR = (prevR + r) / 2;
+                int jumpedC = (prevC + c) / 2;
+                hash ^= pieceKey(board[jumpedR][jumpedC], Rules.square(jumpedR, jumpedC));
+            }
+            prevR = r;
+            prevC = c;
+        }
+        if (piece == 'b' && prevR == 7)
+            piece = 'B';
+        else if (piece == 'r' && prevR == 0)
+            piece = 'R';
+        hash ^= pieceKey(piece, Rules.square(prevR, prevC));
+        return hash ^ AI_TO_MOVE;
+    }
+
+    /**
+     * Key of a piece on a square, 0 for an empty square.
+     * @param piece piece char
+     * @param sq    playable square
+     * @return key
+     */
+    static long pieceKey(char piece, int sq) {
+        return switch (piece) {
+            case 'b' -> PIECE_KEYS[0][sq];
+            case 'B' -> PIECE_KEYS[1][sq];
+            case 'r' -> PIECE_KEYS[2][sq];
+            case 'R' -> PIECE_KEYS[3][sq];
+            default -> 0;
+        };
+    }
+}